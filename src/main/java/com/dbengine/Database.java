@@ -10,9 +10,14 @@ import com.dbengine.planner.QueryOptimizer;
 import com.dbengine.semantic.Catalog;
 import com.dbengine.semantic.Schema;
 import com.dbengine.semantic.SemanticAnalyzer;
+import com.dbengine.storage.BackgroundWriter;
 import com.dbengine.storage.BufferPool;
+import com.dbengine.storage.BufferPoolStats;
 import com.dbengine.storage.DiskManager;
+import com.dbengine.storage.MappedDiskManager;
+import com.dbengine.storage.MetadataStore;
 import com.dbengine.storage.TableHeap;
+import com.dbengine.storage.Tablespace;
 import com.dbengine.storage.Tuple;
 import com.dbengine.txn.LogManager;
 import com.dbengine.txn.Transaction;
@@ -24,16 +29,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Main database engine that coordinates all components.
  */
 public class Database {
-    private static final int BUFFER_POOL_SIZE = 5000; //increased for large datasets (~20MB buffer)
-    
     private final Path dbDirectory;
+    private final DatabaseConfig config;
     private final DiskManager diskManager;
+    private final Tablespace tablespace;
     private final BufferPool bufferPool;
+    private final BackgroundWriter backgroundWriter;  //null when disabled
     private final Catalog catalog;
     private final LogManager logManager;
     private final TransactionManager transactionManager;
@@ -42,24 +49,72 @@ public class Database {
     private Transaction currentTransaction;
     
     public Database(String dbName) throws IOException {
+        this(dbName, DatabaseConfig.defaults());
+    }
+    
+    public Database(String dbName, DatabaseConfig config) throws IOException {
         this.dbDirectory = Paths.get("db_data", dbName);
+        this.config = config;
         Files.createDirectories(dbDirectory);
         
         Path dbFile = dbDirectory.resolve("data.db");
         Path logFile = dbDirectory.resolve("wal.log");
         
-        this.diskManager = new DiskManager(dbFile);
-        this.bufferPool = new BufferPool(diskManager, BUFFER_POOL_SIZE);
-        this.catalog = new Catalog();
+        DiskManager mainFile = openDataFile(dbFile, config.pageSize(), Tablespace.MAIN_FILE);
+        if (MetadataStore.isPreCatalogFile(mainFile)) {
+            mainFile.close();
+            setAside(dbFile);
+            setAside(logFile);
+            mainFile = openDataFile(dbFile, config.pageSize(), Tablespace.MAIN_FILE);
+        }
+        this.diskManager = mainFile;
+        //table files use the page size of the main data file
+        this.tablespace = new Tablespace(dbDirectory, diskManager,
+                (path, fileId) -> openDataFile(path, diskManager.getPageSize(), fileId));
+        this.bufferPool = new BufferPool(tablespace, config.bufferPoolSize(), config.replacementPolicy());
+        this.backgroundWriter = config.backgroundWriterIntervalMillis() > 0
+                ? new BackgroundWriter(bufferPool, config.backgroundWriterIntervalMillis())
+                : null;
         this.logManager = new LogManager(logFile);
         this.transactionManager = new TransactionManager(logManager, bufferPool);
-        this.optimizer = new QueryOptimizer(catalog);
-        this.planner = new PhysicalPlanner(catalog, bufferPool);
         
         //recover from crash if needed
         if (Files.exists(logFile) && Files.size(logFile) > 0) {
             transactionManager.recover();
         }
+        
+        //only the table directory is read here; tables are opened on first use
+        boolean newFile = diskManager.getNumPages() == 0;
+        this.catalog = new Catalog(new MetadataStore(bufferPool, newFile));
+        this.optimizer = new QueryOptimizer(catalog);
+        this.planner = new PhysicalPlanner(catalog, bufferPool);
+        
+        if (backgroundWriter != null) {
+            backgroundWriter.start();
+        }
+    }
+    
+    /**
+     * Move a file written before the system catalog existed out of the way,
+     * so a fresh database is created in its place. Its tables cannot be found
+     * without a catalog, so it is only kept for manual recovery.
+     */
+    private static void setAside(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        Path target = file.resolveSibling(file.getFileName() + ".pre-catalog");
+        for (int i = 1; Files.exists(target); i++) {
+            target = file.resolveSibling(file.getFileName() + ".pre-catalog." + i);
+        }
+        Files.move(file, target);
+        System.err.println("Moved pre-catalog file " + file + " to " + target);
+    }
+    
+    private DiskManager openDataFile(Path path, int pageSize, int fileId) throws IOException {
+        return config.memoryMappedIo()
+                ? new MappedDiskManager(path, pageSize, config.syncPolicy(), fileId)
+                : new DiskManager(path, pageSize, config.syncPolicy(), fileId);
     }
     
     /**
@@ -122,6 +177,8 @@ public class Database {
             
             Tuple tuple;
             while ((tuple = physicalPlan.next()) != null) {
+                //a later modify or remove may free the overflow pages the row points at
+                tuple.resolveOverflow();
                 results.add(tuple);
             }
             
@@ -134,22 +191,35 @@ public class Database {
             }
             
             return new QueryResult("Success", results);
-            
+        
         } catch (Exception e) {
             return new QueryResult("Error: " + e.getMessage(), new ArrayList<>());
         }
     }
     
     /**
-     * Create a table in the catalog.
+     * Create a table in a data file of its own and record it in the catalog.
      */
     public TableHeap createTable(String name, Schema schema) throws IOException {
-        catalog.registerTable(name, schema);
-        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        if (catalog.tableExists(name)) {
+            throw new IllegalArgumentException("Table already exists: " + name);
+        }
+        TableHeap tableHeap = planner.createTableHeap(schema);
+        catalog.registerTable(name, schema, tableHeap.getFirstPageId());
         planner.registerTableHeap(name, tableHeap);
         return tableHeap;
     }
     
+    /**
+     * Get the heap of an existing table, opening it if this is its first use.
+     */
+    public Optional<TableHeap> getTable(String name) {
+        if (!catalog.tableExists(name)) {
+            return Optional.empty();
+        }
+        return Optional.of(planner.getTableHeap(name));
+    }
+    
     /**
      * Get the catalog.
      */
@@ -161,6 +231,18 @@ public class Database {
         return dbDirectory;
     }
     
+    public DatabaseConfig getConfig() {
+        return config;
+    }
+    
+    /**
+     * Page size of the open data file, which may differ from the configured
+     * one if the database already existed.
+     */
+    public int getPageSize() {
+        return diskManager.getPageSize();
+    }
+    
     /**
      * Get the planner (for registering table heaps and indexes).
      */
@@ -175,6 +257,13 @@ public class Database {
         return bufferPool;
     }
     
+    /**
+     * Get buffer pool hit/miss statistics for the configured replacement policy.
+     */
+    public BufferPoolStats getBufferPoolStats() {
+        return bufferPool.getStats();
+    }
+    
     /**
      * Shutdown the database cleanly.
      */
@@ -183,9 +272,13 @@ public class Database {
             transactionManager.commit(currentTransaction);
         }
         
+        if (backgroundWriter != null) {
+            backgroundWriter.stop();
+        }
         bufferPool.flushAllPages();
+        bufferPool.close();
         logManager.close();
-        diskManager.close();
+        tablespace.close();
     }
     
     /**
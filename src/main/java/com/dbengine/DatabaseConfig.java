@@ -0,0 +1,63 @@
+package com.dbengine;
+
+import com.dbengine.storage.Page;
+import com.dbengine.storage.ReplacementPolicyType;
+import com.dbengine.storage.SyncPolicy;
+
+/**
+ * Tunable settings for a database instance.
+ */
+public record DatabaseConfig(int pageSize,
+                             int bufferPoolSize,
+                             ReplacementPolicyType replacementPolicy,
+                             boolean memoryMappedIo,
+                             SyncPolicy syncPolicy,
+                             long backgroundWriterIntervalMillis) {
+    private static final int DEFAULT_BUFFER_POOL_SIZE = 5000; //increased for large datasets (~20MB buffer)
+    private static final long DEFAULT_BACKGROUND_WRITER_INTERVAL_MILLIS = 200;
+    
+    public static DatabaseConfig defaults() {
+        return new DatabaseConfig(Page.PAGE_SIZE, DEFAULT_BUFFER_POOL_SIZE, ReplacementPolicyType.CLOCK, false,
+                SyncPolicy.BATCH, DEFAULT_BACKGROUND_WRITER_INTERVAL_MILLIS);
+    }
+    
+    /**
+     * Page size for a newly created database; an existing database keeps the
+     * page size stored in its data file header.
+     */
+    public DatabaseConfig withPageSize(int pageSize) {
+        return new DatabaseConfig(pageSize, bufferPoolSize, replacementPolicy, memoryMappedIo,
+                syncPolicy, backgroundWriterIntervalMillis);
+    }
+    
+    public DatabaseConfig withBufferPoolSize(int bufferPoolSize) {
+        return new DatabaseConfig(pageSize, bufferPoolSize, replacementPolicy, memoryMappedIo,
+                syncPolicy, backgroundWriterIntervalMillis);
+    }
+    
+    public DatabaseConfig withReplacementPolicy(ReplacementPolicyType replacementPolicy) {
+        return new DatabaseConfig(pageSize, bufferPoolSize, replacementPolicy, memoryMappedIo,
+                syncPolicy, backgroundWriterIntervalMillis);
+    }
+    
+    /**
+     * Serve pages from memory-mapped segments of the data file instead of channel reads.
+     */
+    public DatabaseConfig withMemoryMappedIo(boolean memoryMappedIo) {
+        return new DatabaseConfig(pageSize, bufferPoolSize, replacementPolicy, memoryMappedIo,
+                syncPolicy, backgroundWriterIntervalMillis);
+    }
+    
+    public DatabaseConfig withSyncPolicy(SyncPolicy syncPolicy) {
+        return new DatabaseConfig(pageSize, bufferPoolSize, replacementPolicy, memoryMappedIo,
+                syncPolicy, backgroundWriterIntervalMillis);
+    }
+    
+    /**
+     * How often the background writer cleans dirty pages; 0 disables it.
+     */
+    public DatabaseConfig withBackgroundWriterInterval(long backgroundWriterIntervalMillis) {
+        return new DatabaseConfig(pageSize, bufferPoolSize, replacementPolicy, memoryMappedIo,
+                syncPolicy, backgroundWriterIntervalMillis);
+    }
+}
@@ -1,14 +1,21 @@
 package com.dbengine.exec;
 
 import com.dbengine.lang.ast.*;
+import com.dbengine.storage.DictionaryValue;
 import com.dbengine.storage.Tuple;
 
 /**
  * Evaluates expressions against tuples at runtime.
+ * Dictionary-encoded strings are kept as codes while the expression is
+ * evaluated, so equality tests on them compare integers.
  */
 public class ExpressionEvaluator {
     
     public Object evaluate(Expr expr, Tuple tuple) {
+        return plain(evaluateEncoded(expr, tuple));
+    }
+    
+    private Object evaluateEncoded(Expr expr, Tuple tuple) {
         return switch (expr) {
             case IdentifierExpr i -> evaluateIdentifier(i, tuple);
             case LiteralExpr l -> l.value();
@@ -17,25 +24,29 @@ public class ExpressionEvaluator {
     }
     
     private Object evaluateIdentifier(IdentifierExpr expr, Tuple tuple) {
-        return tuple.getValue(expr.name());
+        return tuple.getEncodedValue(expr.name());
     }
     
     private Object evaluateBinary(BinaryExpr expr, Tuple tuple) {
-        Object left = evaluate(expr.left(), tuple);
-        Object right = evaluate(expr.right(), tuple);
+        Object left = evaluateEncoded(expr.left(), tuple);
+        Object right = evaluateEncoded(expr.right(), tuple);
         
         return switch (expr.op()) {
             case OR -> evaluateOr(left, right);
             case AND -> evaluateAnd(left, right);
             case EQ -> evaluateEquals(left, right);
             case NE -> !evaluateEquals(left, right);
-            case LT -> evaluateLessThan(left, right);
-            case LE -> evaluateLessThanOrEquals(left, right);
-            case GT -> evaluateGreaterThan(left, right);
-            case GE -> evaluateGreaterThanOrEquals(left, right);
+            case LT -> evaluateLessThan(plain(left), plain(right));
+            case LE -> evaluateLessThanOrEquals(plain(left), plain(right));
+            case GT -> evaluateGreaterThan(plain(left), plain(right));
+            case GE -> evaluateGreaterThanOrEquals(plain(left), plain(right));
         };
     }
     
+    private Object plain(Object value) {
+        return value instanceof DictionaryValue coded ? coded.get() : value;
+    }
+    
     private boolean evaluateOr(Object left, Object right) {
         if (left instanceof Boolean && right instanceof Boolean) {
             return (Boolean) left || (Boolean) right;
@@ -53,6 +64,8 @@ public class ExpressionEvaluator {
     private boolean evaluateEquals(Object left, Object right) {
         if (left == null && right == null) return true;
         if (left == null || right == null) return false;
+        if (left instanceof DictionaryValue coded) return coded.matches(right);
+        if (right instanceof DictionaryValue coded) return coded.matches(left);
         return left.equals(right);
     }
     
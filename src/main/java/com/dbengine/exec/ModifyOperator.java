@@ -2,24 +2,30 @@ package com.dbengine.exec;
 
 import com.dbengine.lang.ast.Expr;
 import com.dbengine.storage.RecordId;
+import com.dbengine.storage.RowLayout;
 import com.dbengine.storage.TableHeap;
 import com.dbengine.storage.Tuple;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Modify operator that updates tuples in a table.
+ * Positions of the updated columns are looked up once per input layout.
  */
 public class ModifyOperator implements Operator {
     private final Operator child;
-    private final Map<String, Expr> updates;
+    private final List<Map.Entry<String, Expr>> updates;
     private final TableHeap tableHeap;
     private final ExpressionEvaluator evaluator;
+    private RowLayout inputLayout;  //layout the ordinals were resolved against
+    private int[] ordinals;         //position of each update's column, or -1 if absent
     private int modifiedCount;
     
     public ModifyOperator(Operator child, Map<String, Expr> updates, TableHeap tableHeap) {
         this.child = child;
-        this.updates = updates;
+        this.updates = new ArrayList<>(updates.entrySet());
         this.tableHeap = tableHeap;
         this.evaluator = new ExpressionEvaluator();
     }
@@ -37,16 +43,20 @@ public class ModifyOperator implements Operator {
             return null;
         }
         
+        if (tuple.getLayout() != inputLayout) {
+            inputLayout = tuple.getLayout();
+            ordinals = new int[updates.size()];
+            for (int i = 0; i < ordinals.length; i++) {
+                ordinals[i] = inputLayout.indexOf(updates.get(i).getKey());
+            }
+        }
+        
         //create modified tuple
         Tuple modified = tuple.copy();
-        for (Map.Entry<String, Expr> entry : updates.entrySet()) {
-            String column = entry.getKey();
-            Expr expr = entry.getValue();
-            Object value = evaluator.evaluate(expr, tuple);
-            
-            Integer index = modified.getColumnIndexMap().get(column);
-            if (index != null) {
-                modified.setValue(index, value);
+        for (int i = 0; i < ordinals.length; i++) {
+            Object value = evaluator.evaluate(updates.get(i).getValue(), tuple);
+            if (ordinals[i] != -1) {
+                modified.setValue(ordinals[i], value);
             }
         }
         
@@ -1,20 +1,26 @@
 package com.dbengine.exec;
 
+import com.dbengine.storage.RowLayout;
 import com.dbengine.storage.Tuple;
 
-import java.util.HashMap;
 import java.util.List;
 
 /**
  * Projection operator that selects specific columns from tuples.
+ * All output tuples share one layout, and the input positions of the
+ * projected columns are looked up once per input layout.
  */
 public class ProjectionOperator implements Operator {
     private final Operator child;
     private final List<String> columns;
+    private final RowLayout layout;
+    private RowLayout inputLayout;  //layout the ordinals were resolved against
+    private int[] ordinals;
     
     public ProjectionOperator(Operator child, List<String> columns) {
         this.child = child;
         this.columns = columns;
+        this.layout = RowLayout.of(columns);
     }
     
     @Override
@@ -29,21 +35,33 @@ public class ProjectionOperator implements Operator {
             return null;
         }
         
-        //project the tuple to selected columns
-        Object[] values = new Object[columns.size()];
-        java.util.Map<String, Integer> columnIndexMap = new HashMap<>();
+        if (tuple.getLayout() != inputLayout) {
+            resolveOrdinals(tuple.getLayout());
+        }
         
-        for (int i = 0; i < columns.size(); i++) {
-            String column = columns.get(i);
-            values[i] = tuple.getValue(column);
-            columnIndexMap.put(column, i);
+        //project the tuple to selected columns
+        Object[] values = new Object[ordinals.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            values[i] = tuple.getValue(ordinals[i]);
         }
         
-        Tuple projected = new Tuple(values, columnIndexMap);
+        Tuple projected = new Tuple(values, layout);
         projected.setRecordId(tuple.getRecordId());
         return projected;
     }
     
+    private void resolveOrdinals(RowLayout input) {
+        int[] resolved = new int[columns.size()];
+        for (int i = 0; i < resolved.length; i++) {
+            resolved[i] = input.indexOf(columns.get(i));
+            if (resolved[i] == -1) {
+                throw new IllegalArgumentException("Column not found: " + columns.get(i));
+            }
+        }
+        ordinals = resolved;
+        inputLayout = input;
+    }
+    
     @Override
     public void close() throws Exception {
         child.close();
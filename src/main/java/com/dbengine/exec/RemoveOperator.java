@@ -29,6 +29,9 @@ public class RemoveOperator implements Operator {
             return null;
         }
         
+        //the deleted row's overflow pages are freed, so read them while they are intact
+        tuple.resolveOverflow();
+        
         //delete from storage
         tableHeap.deleteTuple(tuple.getRecordId());
         deletedCount++;
@@ -1,24 +1,41 @@
 package com.dbengine.exec;
 
+import com.dbengine.storage.BufferAccessStrategy;
 import com.dbengine.storage.TableHeap;
 import com.dbengine.storage.Tuple;
 
 import java.util.Iterator;
+import java.util.Set;
 
 /**
  * Sequential scan operator that reads all tuples from a table.
+ * Scans feeding modify/remove use a bulk-write ring so dirtied pages are
+ * written back as the ring recycles them. If the plan knows which columns it
+ * reads, only those are decoded up front.
  */
 public class SeqScanOperator implements Operator {
     private final TableHeap tableHeap;
+    private final BufferAccessStrategy.Type strategyType;
+    private final Set<String> columns;  //null for all columns
     private Iterator<Tuple> iterator;
     
     public SeqScanOperator(TableHeap tableHeap) {
+        this(tableHeap, BufferAccessStrategy.Type.BULK_READ);
+    }
+    
+    public SeqScanOperator(TableHeap tableHeap, BufferAccessStrategy.Type strategyType) {
+        this(tableHeap, strategyType, null);
+    }
+    
+    public SeqScanOperator(TableHeap tableHeap, BufferAccessStrategy.Type strategyType, Set<String> columns) {
         this.tableHeap = tableHeap;
+        this.strategyType = strategyType;
+        this.columns = columns;
     }
     
     @Override
     public void open() {
-        iterator = tableHeap.iterator();
+        iterator = tableHeap.iterator(strategyType, columns);
     }
     
     @Override
@@ -1,6 +1,7 @@
 package com.dbengine.exec;
 
 import com.dbengine.lang.ast.SortNode.Order;
+import com.dbengine.storage.DictionaryValue;
 import com.dbengine.storage.Tuple;
 
 import java.util.ArrayList;
@@ -57,8 +58,8 @@ public class SortOperator implements Operator {
     
     private Comparator<Tuple> createComparator() {
         return (t1, t2) -> {
-            Object v1 = t1.getValue(column);
-            Object v2 = t2.getValue(column);
+            Object v1 = t1.getEncodedValue(column);
+            Object v2 = t2.getEncodedValue(column);
             
             int comparison = compareValues(v1, v2);
             return order == Order.ASC ? comparison : -comparison;
@@ -71,6 +72,13 @@ public class SortOperator implements Operator {
         if (v1 == null) return -1;
         if (v2 == null) return 1;
         
+        //codes from one dictionary sort by rank without building strings
+        if (v1 instanceof DictionaryValue d1 && v2 instanceof DictionaryValue d2 && d1.sameDictionary(d2)) {
+            return Integer.compare(d1.rank(), d2.rank());
+        }
+        if (v1 instanceof DictionaryValue d1) v1 = d1.get();
+        if (v2 instanceof DictionaryValue d2) v2 = d2.get();
+        
         if (v1 instanceof Comparable<?>) {
             return ((Comparable<Object>) v1).compareTo(v2);
         }
@@ -13,17 +13,27 @@ import javax.swing.border.TitledBorder;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
 
 /**
  * Graphical User Interface for JavaDBEngine.
  * Demonstrates the database functionality with a clean, modern interface.
  */
 public class DatabaseGUI extends JFrame {
+    private static final String LOADED_MARKER = "sample_data.loaded";  //holds the dataset size of a completed load
+    
     private Database database;
     private TableHeap usersTableHeap;
     private TableHeap productsTableHeap;
     private String currentDatasetSize = "1.3M";
+    private boolean tablesReopened;
+    private volatile boolean stopLoading;  //asks a running sample data load to stop
+    private CountDownLatch loaderFinished = new CountDownLatch(0);  //released when the running load ends
     
     //ui components
     private JTextArea queryInput;
@@ -62,6 +72,23 @@ public class DatabaseGUI extends JFrame {
     }
     
     private void createSampleTables() throws IOException {
+        //reuse the tables of a completed load instead of loading them again
+        Path marker = database.getDbDirectory().resolve(LOADED_MARKER);
+        boolean hasUsers = database.getCatalog().tableExists("users");
+        boolean hasProducts = database.getCatalog().tableExists("products");
+        if (Files.exists(marker) && hasUsers && hasProducts) {
+            usersTableHeap = database.getTable("users").orElseThrow();
+            productsTableHeap = database.getTable("products").orElseThrow();
+            currentDatasetSize = Files.readString(marker).trim();
+            tablesReopened = true;
+            return;
+        }
+        
+        //tables without the marker were left by a load that did not finish
+        if (hasUsers || hasProducts) {
+            clearDatabase();
+        }
+        
         //create users table and get the table heap
         Schema usersSchema = new Schema();
         usersSchema.addColumn("id", DataType.INTEGER);
@@ -80,22 +107,32 @@ public class DatabaseGUI extends JFrame {
     }
     
     private void loadSampleDataAfterUI() {
+        if (tablesReopened) {
+            outputArea.append("Opened existing tables from " + database.getDbDirectory() + "\n");
+            outputArea.append("-".repeat(60) + "\n\n");
+            setStatus("Opened existing database (" + currentDatasetSize + ")", SUCCESS);
+            return;
+        }
+        
         setStatus("Loading sample data (" + currentDatasetSize + ")...", PRIMARY);
         
+        CountDownLatch finished = new CountDownLatch(1);
         SwingWorker<Void, String> worker = new SwingWorker<>() {
             private long startTime;
             
             @Override
             protected Void doInBackground() throws Exception {
-                startTime = System.currentTimeMillis();
-                
-                SampleDataLoader.loadUsersData(usersTableHeap, usersTableHeap.getSchema(), currentDatasetSize,
-                    (current, total, msg) -> publish(msg + " " + current + "/" + total));
-                
-                SampleDataLoader.loadProductsData(productsTableHeap, productsTableHeap.getSchema(), currentDatasetSize,
-                    (current, total, msg) -> publish(msg + " " + current + "/" + total));
-                
-                return null;
+                try {
+                    startTime = System.currentTimeMillis();
+                    
+                    SampleDataLoader.loadAllData(usersTableHeap, productsTableHeap, currentDatasetSize,
+                        loadProgress(msg -> publish(msg)));
+                    markLoaded(currentDatasetSize);
+                    
+                    return null;
+                } finally {
+                    finished.countDown();
+                }
             }
             
             @Override
@@ -112,22 +149,8 @@ public class DatabaseGUI extends JFrame {
                     get(); //check for exceptions
                     long duration = System.currentTimeMillis() - startTime;
                     
-                    int userCount = switch (currentDatasetSize) {
-                        case "1K" -> 100;
-                        case "35K" -> 10000;
-                        case "350K" -> 100000;
-                        case "1.3M" -> 300000;
-                        case "5M" -> 500000;
-                        default -> 300000;
-                    };
-                    int productCount = switch (currentDatasetSize) {
-                        case "1K" -> 900;
-                        case "35K" -> 25000;
-                        case "350K" -> 250000;
-                        case "1.3M" -> 1000000;
-                        case "5M" -> 4500000;
-                        default -> 1000000;
-                    };
+                    int userCount = SampleDataLoader.userCount(currentDatasetSize);
+                    int productCount = SampleDataLoader.productCount(currentDatasetSize);
                     int totalRecords = userCount + productCount;
                     
                     String timeStr = formatLoadTime(duration);
@@ -146,12 +169,86 @@ public class DatabaseGUI extends JFrame {
             }
         };
         
+        loaderFinished = finished;
         worker.execute();
     }
     
+    /**
+     * Progress callback that reports to the status bar and stops the load
+     * when stopLoader is called.
+     */
+    private SampleDataLoader.ProgressCallback loadProgress(Consumer<String> status) {
+        return new SampleDataLoader.ProgressCallback() {
+            @Override
+            public void onProgress(int current, int total, String message) {
+                status.accept(message + " " + current + "/" + total);
+            }
+            
+            @Override
+            public boolean stopRequested() {
+                return stopLoading;
+            }
+        };
+    }
+    
+    /**
+     * Stop a running sample data load and wait until its inserts are done,
+     * so the database can be shut down or cleared under it.
+     */
+    private void stopLoader() {
+        stopLoading = true;
+        try {
+            loaderFinished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopLoading = false;
+        }
+    }
+    
+    /**
+     * Record that the sample tables hold a complete dataset of the given size.
+     * The tables are flushed first, so the marker is never on disk before
+     * the rows it vouches for.
+     */
+    private void markLoaded(String datasetSize) throws IOException {
+        database.getBufferPool().flushAllPages();
+        Files.writeString(database.getDbDirectory().resolve(LOADED_MARKER), datasetSize);
+    }
+    
+    /**
+     * Shut the database down, delete its files and open it again empty.
+     */
+    private void clearDatabase() throws IOException {
+        database.shutdown();
+        
+        Path dbDir = database.getDbDirectory();
+        Files.deleteIfExists(dbDir.resolve(LOADED_MARKER));
+        try (DirectoryStream<Path> dataFiles = Files.newDirectoryStream(dbDir, "*.db")) {
+            for (Path dataFile : dataFiles) {
+                Files.delete(dataFile);  //main data file and table files
+            }
+        }
+        Files.deleteIfExists(dbDir.resolve("wal.log"));
+        
+        database = new Database("gui_demo");
+    }
+    
     private void initializeUI() {
         setTitle("JavaDBEngine - Functional Pipeline Query Database");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        //flush the tables on exit so the next start can reopen them
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                stopLoader();
+                try {
+                    database.shutdown();
+                } catch (IOException ex) {
+                    System.err.println("Failed to shut down database: " + ex.getMessage());
+                }
+            }
+        });
         setSize(1400, 900);
         setLocationRelativeTo(null);
         
@@ -235,10 +332,7 @@ public class DatabaseGUI extends JFrame {
             String label = datasetLabels[i];
             JRadioButtonMenuItem menuItem = new JRadioButtonMenuItem(label);
             menuItem.setSelected(size.equals(currentDatasetSize));
-            menuItem.addActionListener(e -> {
-                currentDatasetSize = size;
-                reloadSampleData(size);
-            });
+            menuItem.addActionListener(e -> reloadSampleData(size));
             menuGroup.add(menuItem);
             datasetMenu.add(menuItem);
         }
@@ -510,7 +604,7 @@ public class DatabaseGUI extends JFrame {
                 displayResults(lastResult.tuples());
                 setStatus("Query executed successfully (" + totalDuration + "ms)", SUCCESS);
             }
-            
+        
         } catch (Exception e) {
             outputArea.append("ERROR: " + e.getMessage() + "\n");
             outputArea.append("-".repeat(60) + "\n\n");
@@ -541,7 +635,7 @@ public class DatabaseGUI extends JFrame {
             tableModel.setColumnCount(0);
             
             setStatus("Query plan generated", PRIMARY);
-            
+        
         } catch (Exception e) {
             outputArea.append("ERROR: " + e.getMessage() + "\n");
             outputArea.append("-".repeat(60) + "\n\n");
@@ -560,14 +654,7 @@ public class DatabaseGUI extends JFrame {
         
         //get column names from first tuple
         Tuple first = tuples.get(0);
-        java.util.Map<String, Integer> columnMap = first.getColumnIndexMap();
-        String[] columns = new String[columnMap.size()];
-        
-        for (java.util.Map.Entry<String, Integer> entry : columnMap.entrySet()) {
-            columns[entry.getValue()] = entry.getKey();
-        }
-        
-        tableModel.setColumnIdentifiers(columns);
+        tableModel.setColumnIdentifiers(first.getLayout().getColumns().toArray());
         
         //add rows
         for (Tuple tuple : tuples) {
@@ -584,9 +671,12 @@ public class DatabaseGUI extends JFrame {
     }
     
     private void reloadSampleData(String datasetSize) {
+        //a load still running would insert into the files about to be deleted
+        stopLoader();
         setStatus("Reloading data (" + datasetSize + ")...", PRIMARY);
         outputArea.append("Clearing old data and reloading (" + datasetSize + ")...\n");
         
+        CountDownLatch finished = new CountDownLatch(1);
         SwingWorker<Void, String> worker = new SwingWorker<>() {
             private int userCount = 0;
             private int productCount = 0;
@@ -594,50 +684,30 @@ public class DatabaseGUI extends JFrame {
             
             @Override
             protected Void doInBackground() throws Exception {
-                //calculate record counts for reporting
-                userCount = switch (datasetSize) {
-                    case "1K" -> 100;
-                    case "35K" -> 10000;
-                    case "350K" -> 100000;
-                    case "1.3M" -> 300000;
-                    case "5M" -> 500000;
-                    default -> 300000;
-                };
-                productCount = switch (datasetSize) {
-                    case "1K" -> 900;
-                    case "35K" -> 25000;
-                    case "350K" -> 250000;
-                    case "1.3M" -> 1000000;
-                    case "5M" -> 4500000;
-                    default -> 1000000;
-                };
-                
-                //shutdown database to close file handles
-                publish("Closing database...");
-                database.shutdown();
-                
-                //delete database files to reclaim space
-                publish("Clearing database files...");
-                java.nio.file.Path dbDir = database.getDbDirectory();
-                java.nio.file.Files.deleteIfExists(dbDir.resolve("data.db"));
-                java.nio.file.Files.deleteIfExists(dbDir.resolve("wal.log"));
-                
-                //reinitialize database
-                publish("Reinitializing database...");
-                database = new Database("gui_demo");
-                createSampleTables();
-                
-                //start timer after cleanup, before data loading
-                startTime = System.currentTimeMillis();
-                
-                //load with progress
-                SampleDataLoader.loadUsersData(usersTableHeap, usersTableHeap.getSchema(), datasetSize,
-                    (current, total, msg) -> publish(msg + " " + current + "/" + total));
-                
-                SampleDataLoader.loadProductsData(productsTableHeap, productsTableHeap.getSchema(), datasetSize,
-                    (current, total, msg) -> publish(msg + " " + current + "/" + total));
-                
-                return null;
+                try {
+                    //calculate record counts for reporting
+                    userCount = SampleDataLoader.userCount(datasetSize);
+                    productCount = SampleDataLoader.productCount(datasetSize);
+                    
+                    //delete database files to reclaim space, starting with the load marker
+                    publish("Clearing database files...");
+                    clearDatabase();
+                    
+                    publish("Creating tables...");
+                    createSampleTables();
+                    
+                    //start timer after cleanup, before data loading
+                    startTime = System.currentTimeMillis();
+                    
+                    //load with progress
+                    SampleDataLoader.loadAllData(usersTableHeap, productsTableHeap, datasetSize,
+                        loadProgress(msg -> publish(msg)));
+                    markLoaded(datasetSize);
+                    
+                    return null;
+                } finally {
+                    finished.countDown();
+                }
             }
             
             @Override
@@ -652,6 +722,7 @@ public class DatabaseGUI extends JFrame {
             protected void done() {
                 try {
                     get(); //check for exceptions
+                    currentDatasetSize = datasetSize;
                     long duration = System.currentTimeMillis() - startTime;
                     int totalRecords = userCount + productCount;
                     
@@ -671,6 +742,7 @@ public class DatabaseGUI extends JFrame {
             }
         };
         
+        loaderFinished = finished;
         worker.execute();
     }
     
@@ -1,25 +1,41 @@
 package com.dbengine.gui;
 
 import com.dbengine.semantic.Schema;
+import com.dbengine.storage.RowLayout;
 import com.dbengine.storage.TableHeap;
 import com.dbengine.storage.Tuple;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utility class to load scaled sample data into tables for GUI demonstration.
  * Generates 10,000 users and 25,000 products with randomized realistic data.
+ *
+ * Rows are generated in partitions of consecutive ids, each with its own
+ * Random seeded from SEED and the partition number, so a dataset has the
+ * same rows on every load while partitions are generated and inserted in
+ * parallel. Only the physical order of the rows varies between loads.
  */
 public class SampleDataLoader {
     
     public interface ProgressCallback {
         void onProgress(int current, int total, String message);
+        
+        /**
+         * Whether the load should stop. Checked before each partition, so the
+         * load returns once the partitions already running are inserted.
+         */
+        default boolean stopRequested() {
+            return false;
+        }
     }
     
-    private static final Random rand = new Random(42); //fixed seed for reproducibility
+    private static final long SEED = 42;  //fixed seed for reproducibility
+    private static final int PARTITION_ROWS = 50000;  //rows generated and bulk inserted per task
     
     //names for user generation
     private static final String[] FIRST_NAMES = {
@@ -54,56 +70,25 @@ public class SampleDataLoader {
          "Desk Fan", "Storage Box", "Cable Sleeve", "LED Strip", "Clock"}
     };
     
+    private static final String[] VARIANTS = {"Pro", "Plus", "Elite", "Standard", "Basic", "Premium", "Deluxe"};
+    
+    //each table draws from its own stream of partition seeds
+    private static final Generator USER_ROWS = new Generator(1,
+        RowLayout.of(List.of("id", "name", "age", "active")), SampleDataLoader::userRow);
+    private static final Generator PRODUCT_ROWS = new Generator(2,
+        RowLayout.of(List.of("id", "name", "price", "stock")), SampleDataLoader::productRow);
+    
     public static void loadUsersData(TableHeap tableHeap, Schema schema) throws IOException, InterruptedException {
         loadUsersData(tableHeap, schema, "1.3M", null);
     }
     
     public static void loadUsersData(TableHeap tableHeap, Schema schema, String datasetSize, ProgressCallback callback) throws IOException, InterruptedException {
-        Map<String, Integer> columnMap = new HashMap<>();
-        columnMap.put("id", 0);
-        columnMap.put("name", 1);
-        columnMap.put("age", 2);
-        columnMap.put("active", 3);
-        
-        //determine user count based on dataset size
-        int total = switch (datasetSize) {
-            case "1K" -> 100;
-            case "35K" -> 10000;
-            case "350K" -> 100000;
-            case "1.3M" -> 300000;
-            case "5M" -> 500000;
-            default -> 300000;
-        };
-        
-        //calculate progress update interval
-        int updateInterval = Math.max(1, total / 60);
-        
-        for (int i = 1; i <= total; i++) {
-            String firstName = FIRST_NAMES[rand.nextInt(FIRST_NAMES.length)];
-            String lastName = LAST_NAMES[rand.nextInt(LAST_NAMES.length)];
-            String fullName = firstName + " " + lastName;
-            int age = 18 + rand.nextInt(65);
-            boolean active = rand.nextDouble() < 0.75;
-            
-            Object[] values = new Object[4];
-            values[0] = i;
-            values[1] = fullName;
-            values[2] = age;
-            values[3] = active;
-            
-            Tuple tuple = new Tuple(values, columnMap);
-            tableHeap.insertTuple(tuple);
-            
-            if (callback != null && i % updateInterval == 0) {
-                callback.onProgress(i, total, "Loading users...");
-                Thread.sleep(1);
-            }
-        }
-        
+        List<Partition> partitions = partition(tableHeap, USER_ROWS, userCount(datasetSize));
+        load(partitions, userCount(datasetSize), "Loading users...", callback);
         if (callback != null) {
-            callback.onProgress(total, total, "Users loaded");
+            callback.onProgress(userCount(datasetSize), userCount(datasetSize), "Users loaded");
         }
-        System.out.println("Loaded " + total + " users");
+        System.out.println("Loaded " + userCount(datasetSize) + " users");
     }
     
     public static void loadProductsData(TableHeap tableHeap, Schema schema) throws IOException, InterruptedException {
@@ -111,14 +96,41 @@ public class SampleDataLoader {
     }
     
     public static void loadProductsData(TableHeap tableHeap, Schema schema, String datasetSize, ProgressCallback callback) throws IOException, InterruptedException {
-        Map<String, Integer> columnMap = new HashMap<>();
-        columnMap.put("id", 0);
-        columnMap.put("name", 1);
-        columnMap.put("price", 2);
-        columnMap.put("stock", 3);
-        
-        //determine product count based on dataset size
-        int total = switch (datasetSize) {
+        List<Partition> partitions = partition(tableHeap, PRODUCT_ROWS, productCount(datasetSize));
+        load(partitions, productCount(datasetSize), "Loading products...", callback);
+        if (callback != null) {
+            callback.onProgress(productCount(datasetSize), productCount(datasetSize), "Products loaded");
+        }
+        System.out.println("Loaded " + productCount(datasetSize) + " products");
+    }
+    
+    /**
+     * Load users and products at the same time, sharing one pool of workers.
+     */
+    public static void loadAllData(TableHeap usersTableHeap, TableHeap productsTableHeap, String datasetSize, ProgressCallback callback) throws IOException, InterruptedException {
+        List<Partition> partitions = new ArrayList<>(partition(usersTableHeap, USER_ROWS, userCount(datasetSize)));
+        partitions.addAll(partition(productsTableHeap, PRODUCT_ROWS, productCount(datasetSize)));
+        int total = userCount(datasetSize) + productCount(datasetSize);
+        load(partitions, total, "Loading sample data...", callback);
+        if (callback != null) {
+            callback.onProgress(total, total, "Sample data loaded");
+        }
+        System.out.println("Loaded " + userCount(datasetSize) + " users and " + productCount(datasetSize) + " products");
+    }
+    
+    public static int userCount(String datasetSize) {
+        return switch (datasetSize) {
+            case "1K" -> 100;
+            case "35K" -> 10000;
+            case "350K" -> 100000;
+            case "1.3M" -> 300000;
+            case "5M" -> 500000;
+            default -> 300000;
+        };
+    }
+    
+    public static int productCount(String datasetSize) {
+        return switch (datasetSize) {
             case "1K" -> 900;
             case "35K" -> 25000;
             case "350K" -> 250000;
@@ -126,47 +138,110 @@ public class SampleDataLoader {
             case "5M" -> 4500000;
             default -> 1000000;
         };
-        
-        //calculate progress update interval
-        int updateInterval = Math.max(1, total / 100);
-        
-        for (int i = 1; i <= total; i++) {
-            //pick random category and product
-            String[] category = PRODUCTS[rand.nextInt(PRODUCTS.length)];
-            String productName = category[rand.nextInt(category.length)];
-            
-            //add variant suffix for uniqueness
-            String fullName = productName;
-            if (i % 100 > 10) {
-                String[] variants = {"Pro", "Plus", "Elite", "Standard", "Basic", "Premium", "Deluxe"};
-                fullName = productName + " " + variants[rand.nextInt(variants.length)];
+    }
+    
+    /**
+     * Split rows 1..total into partitions of PARTITION_ROWS ids.
+     */
+    private static List<Partition> partition(TableHeap tableHeap, Generator generator, int total) {
+        List<Partition> partitions = new ArrayList<>();
+        for (int index = 0; index * PARTITION_ROWS < total; index++) {
+            int firstId = index * PARTITION_ROWS + 1;
+            int lastId = Math.min(total, firstId + PARTITION_ROWS - 1);
+            partitions.add(new Partition(tableHeap, generator, index, firstId, lastId));
+        }
+        return partitions;
+    }
+    
+    /**
+     * Generate and bulk insert partitions on the common fork-join pool. Each
+     * partition fills its own pages, so loads into one table run side by side.
+     */
+    private static void load(List<Partition> partitions, int total, String message, ProgressCallback callback) throws IOException, InterruptedException {
+        AtomicInteger loaded = new AtomicInteger();
+        try {
+            partitions.parallelStream().forEach(partition -> {
+                if (callback != null && callback.stopRequested()) {
+                    return;
+                }
+                try {
+                    int rows = partition.load();
+                    if (callback != null) {
+                        callback.onProgress(loaded.addAndGet(rows), total, message);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to load sample data: " + e.getMessage(), e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
             }
-            
-            //realistic pricing based on product type
-            int basePrice = productName.contains("Laptop") || productName.contains("Monitor") || productName.contains("Desk") ? 200 : 10;
-            int price = basePrice + rand.nextInt(basePrice * 4);
-            
-            //stock levels
-            int stock = rand.nextInt(100);
-            
-            Object[] values = new Object[4];
-            values[0] = i;
-            values[1] = fullName;
-            values[2] = price;
-            values[3] = stock;
-            
-            Tuple tuple = new Tuple(values, columnMap);
-            tableHeap.insertTuple(tuple);
-            
-            if (callback != null && i % updateInterval == 0) {
-                callback.onProgress(i, total, "Loading products...");
-                Thread.sleep(1);
+            throw e;
+        }
+        if (Thread.interrupted() || (callback != null && callback.stopRequested())) {
+            throw new InterruptedException("Sample data load stopped");
+        }
+    }
+    
+    /**
+     * Seed of one partition, derived from SEED so that every row is the same
+     * however the partitions are scheduled.
+     */
+    static long partitionSeed(int stream, int partition) {
+        //SplitMix64 finalizer, so neighbouring partitions get unrelated seeds
+        long z = SEED + stream * 0x9E3779B97F4A7C15L + (partition + 1) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    private record Partition(TableHeap tableHeap, Generator generator, int index, int firstId, int lastId) {
+        int load() throws IOException {
+            Random random = new Random(partitionSeed(generator.stream(), index));
+            List<Tuple> rows = new ArrayList<>(lastId - firstId + 1);
+            for (int id = firstId; id <= lastId; id++) {
+                rows.add(new Tuple(generator.rows().row(id, random), generator.layout()));
             }
+            tableHeap.bulkInsert(rows.iterator());
+            return rows.size();
         }
+    }
+    
+    private interface RowFunction {
+        Object[] row(int id, Random random);
+    }
+    
+    private record Generator(int stream, RowLayout layout, RowFunction rows) {}
+    
+    private static Object[] userRow(int id, Random random) {
+        String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        String fullName = firstName + " " + lastName;
+        int age = 18 + random.nextInt(65);
+        boolean active = random.nextDouble() < 0.75;
         
-        if (callback != null) {
-            callback.onProgress(total, total, "Products loaded");
+        return new Object[]{id, fullName, age, active};
+    }
+    
+    private static Object[] productRow(int id, Random random) {
+        //pick random category and product
+        String[] category = PRODUCTS[random.nextInt(PRODUCTS.length)];
+        String productName = category[random.nextInt(category.length)];
+        
+        //add variant suffix for uniqueness
+        String fullName = productName;
+        if (id % 100 > 10) {
+            fullName = productName + " " + VARIANTS[random.nextInt(VARIANTS.length)];
         }
-        System.out.println("Loaded " + total + " products");
+        
+        //realistic pricing based on product type
+        int basePrice = productName.contains("Laptop") || productName.contains("Monitor") || productName.contains("Desk") ? 200 : 10;
+        int price = basePrice + random.nextInt(basePrice * 4);
+        
+        //stock levels
+        int stock = random.nextInt(100);
+        
+        return new Object[]{id, fullName, price, stock};
     }
 }
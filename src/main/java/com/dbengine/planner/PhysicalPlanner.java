@@ -4,12 +4,17 @@ import com.dbengine.exec.*;
 import com.dbengine.index.BPlusTree;
 import com.dbengine.lang.ast.*;
 import com.dbengine.semantic.Catalog;
+import com.dbengine.semantic.Schema;
 import com.dbengine.semantic.TableMetadata;
+import com.dbengine.storage.BufferAccessStrategy;
 import com.dbengine.storage.BufferPool;
 import com.dbengine.storage.TableHeap;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Converts an optimized logical plan (AST) into a physical execution plan.
@@ -31,83 +36,135 @@ public class PhysicalPlanner {
      * Create a physical execution plan from a logical plan.
      */
     public Operator createPlan(QueryNode node) {
-        return buildOperator(node);
+        return buildOperator(node, BufferAccessStrategy.Type.BULK_READ, null);
     }
     
-    private Operator buildOperator(QueryNode node) {
+    /**
+     * Build the operator tree. scanStrategy is the ring type any table scan
+     * below this node should use for large tables, and columns is the set of
+     * columns the operators above read (null if they may read any).
+     */
+    private Operator buildOperator(QueryNode node, BufferAccessStrategy.Type scanStrategy, Set<String> columns) {
         return switch (node) {
-            case SourceNode s -> buildSeqScan(s);
-            case FilterNode f -> buildFilter(f);
-            case ProjectNode p -> buildProjection(p);
-            case SortNode s -> buildSort(s);
-            case LimitNode l -> buildLimit(l);
-            case TakeNode t -> buildTake(t);
-            case SkipNode s -> buildSkip(s);
+            case SourceNode s -> buildSeqScan(s, scanStrategy, columns);
+            case FilterNode f -> buildFilter(f, scanStrategy, columns);
+            case ProjectNode p -> buildProjection(p, scanStrategy);
+            case SortNode s -> buildSort(s, scanStrategy, columns);
+            case LimitNode l -> buildLimit(l, scanStrategy, columns);
+            case TakeNode t -> buildTake(t, scanStrategy, columns);
+            case SkipNode s -> buildSkip(s, scanStrategy, columns);
             case ModifyNode m -> buildModify(m);
             case RemoveNode r -> buildRemove(r);
         };
     }
     
-    private Operator buildSeqScan(SourceNode node) {
+    private Operator buildSeqScan(SourceNode node, BufferAccessStrategy.Type scanStrategy, Set<String> columns) {
         TableHeap tableHeap = getTableHeap(node.table());
-        return new SeqScanOperator(tableHeap);
+        return new SeqScanOperator(tableHeap, scanStrategy, columns);
     }
     
-    private Operator buildFilter(FilterNode node) {
-        Operator child = buildOperator(node.input());
+    private Operator buildFilter(FilterNode node, BufferAccessStrategy.Type scanStrategy, Set<String> columns) {
+        Operator child = buildOperator(node.input(), scanStrategy, withColumns(columns, node.predicate()));
         return new FilterOperator(child, node.predicate());
     }
     
-    private Operator buildProjection(ProjectNode node) {
-        Operator child = buildOperator(node.input());
+    private Operator buildProjection(ProjectNode node, BufferAccessStrategy.Type scanStrategy) {
+        //nothing above a projection can read columns it dropped
+        Operator child = buildOperator(node.input(), scanStrategy, new HashSet<>(node.columns()));
         return new ProjectionOperator(child, node.columns());
     }
     
-    private Operator buildSort(SortNode node) {
-        Operator child = buildOperator(node.input());
+    private Operator buildSort(SortNode node, BufferAccessStrategy.Type scanStrategy, Set<String> columns) {
+        Set<String> needed = columns;
+        if (needed != null) {
+            needed = new HashSet<>(columns);
+            needed.add(node.column());
+        }
+        Operator child = buildOperator(node.input(), scanStrategy, needed);
         return new SortOperator(child, node.column(), node.order());
     }
     
-    private Operator buildLimit(LimitNode node) {
-        Operator child = buildOperator(node.input());
+    private Operator buildLimit(LimitNode node, BufferAccessStrategy.Type scanStrategy, Set<String> columns) {
+        Operator child = buildOperator(node.input(), scanStrategy, columns);
         return new LimitOperator(child, node.count());
     }
     
-    private Operator buildTake(TakeNode node) {
-        Operator child = buildOperator(node.input());
+    private Operator buildTake(TakeNode node, BufferAccessStrategy.Type scanStrategy, Set<String> columns) {
+        Operator child = buildOperator(node.input(), scanStrategy, columns);
         return new LimitOperator(child, node.count());
     }
     
-    private Operator buildSkip(SkipNode node) {
-        Operator child = buildOperator(node.input());
+    private Operator buildSkip(SkipNode node, BufferAccessStrategy.Type scanStrategy, Set<String> columns) {
+        Operator child = buildOperator(node.input(), scanStrategy, columns);
         return new SkipOperator(child, node.count());
     }
     
+    /**
+     * Add the columns an expression reads to a column set, unless the set
+     * already stands for all columns.
+     */
+    private Set<String> withColumns(Set<String> columns, Expr expr) {
+        if (columns == null) {
+            return null;
+        }
+        Set<String> needed = new HashSet<>(columns);
+        collectColumns(expr, needed);
+        return needed;
+    }
+    
+    private void collectColumns(Expr expr, Set<String> columns) {
+        if (expr instanceof IdentifierExpr identExpr) {
+            columns.add(identExpr.name());
+        } else if (expr instanceof BinaryExpr binaryExpr) {
+            collectColumns(binaryExpr.left(), columns);
+            collectColumns(binaryExpr.right(), columns);
+        }
+    }
+    
     private Operator buildModify(ModifyNode node) {
-        Operator child = buildOperator(node.input());
+        Operator child = buildOperator(node.input(), BufferAccessStrategy.Type.BULK_WRITE, null);
         TableHeap tableHeap = getTableHeapFromNode(node.input());
         return new ModifyOperator(child, node.updates(), tableHeap);
     }
     
     private Operator buildRemove(RemoveNode node) {
-        Operator child = buildOperator(node.input());
+        Operator child = buildOperator(node.input(), BufferAccessStrategy.Type.BULK_WRITE, null);
         TableHeap tableHeap = getTableHeapFromNode(node.input());
         return new RemoveOperator(child, tableHeap);
     }
     
-    private TableHeap getTableHeap(String tableName) {
+    /**
+     * Get the heap of a table, opening it from its header page on first use
+     * or creating it if the catalog does not have one yet.
+     */
+    public synchronized TableHeap getTableHeap(String tableName) {
         return tableHeaps.computeIfAbsent(tableName, name -> {
             TableMetadata table = catalog.getTable(name)
                 .orElseThrow(() -> new RuntimeException("Table not found: " + name));
             
             try {
-                return new TableHeap(bufferPool, table.getSchema());
+                if (table.getHeapPageId() != TableMetadata.NO_HEAP) {
+                    return new TableHeap(bufferPool, table.getSchema(), table.getHeapPageId());
+                }
+                TableHeap tableHeap = createTableHeap(table.getSchema());
+                catalog.setHeapPageId(name, tableHeap.getFirstPageId());
+                return tableHeap;
             } catch (Exception e) {
-                throw new RuntimeException("Failed to create table heap", e);
+                throw new RuntimeException("Failed to open table heap", e);
             }
         });
     }
     
+    /**
+     * Create an empty heap in a data file of its own and flush it, so that a
+     * catalog entry pointing at it never refers to pages that are not on disk.
+     */
+    public TableHeap createTableHeap(Schema schema) throws IOException {
+        TableHeap tableHeap = TableHeap.createInFile(bufferPool, schema, bufferPool.getTablespace().createFile());
+        bufferPool.flushAllPages();
+        return tableHeap;
+    }
+    
     private TableHeap getTableHeapFromNode(QueryNode node) {
         if (node instanceof SourceNode sourceNode) {
             return getTableHeap(sourceNode.table());
@@ -119,7 +176,7 @@ public class PhysicalPlanner {
         throw new RuntimeException("Cannot determine table heap from node: " + node.getClass());
     }
     
-    public void registerTableHeap(String tableName, TableHeap tableHeap) {
+    public synchronized void registerTableHeap(String tableName, TableHeap tableHeap) {
         tableHeaps.put(tableName, tableHeap);
     }
     
@@ -1,39 +1,126 @@
 package com.dbengine.semantic;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 
 /**
  * System catalog that stores metadata about tables and their schemas.
+ * Without a store the catalog lives only in memory. With a store, only the
+ * table directory is read up front; table metadata is loaded on first use
+ * and kept in a small LRU cache, so opening a database costs the same no
+ * matter how many tables or rows it holds.
  */
 public class Catalog {
-    private final Map<String, TableMetadata> tables;
+    static final int CACHE_SIZE = 64;
+    
+    private final CatalogStore store;  //null for an in-memory catalog
+    private final Map<String, Integer> directory;  //table name -> store handle
+    private final LinkedHashMap<String, TableMetadata> tables;
     
     public Catalog() {
-        this.tables = new HashMap<>();
+        this.store = null;
+        this.directory = new HashMap<>();
+        this.tables = new LinkedHashMap<>();
+    }
+    
+    /**
+     * Open a catalog backed by a store, reading only its directory.
+     */
+    public Catalog(CatalogStore store) throws IOException {
+        this.store = store;
+        this.directory = new HashMap<>(store.readDirectory());
+        this.tables = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TableMetadata> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
     }
     
     public void registerTable(String name, Schema schema) {
-        tables.put(name, new TableMetadata(name, schema));
+        registerTable(name, schema, TableMetadata.NO_HEAP);
     }
     
-    public boolean tableExists(String name) {
-        return tables.containsKey(name);
+    /**
+     * Register a table whose heap starts at the given header page.
+     */
+    public synchronized void registerTable(String name, Schema schema, int heapPageId) {
+        TableMetadata table = new TableMetadata(name, schema, heapPageId);
+        if (store != null) {
+            if (directory.containsKey(name)) {
+                throw new IllegalArgumentException("Table already exists: " + name);
+            }
+            try {
+                directory.put(name, store.addTable(table));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to store table " + name, e);
+            }
+        }
+        tables.put(name, table);
     }
     
-    public Optional<TableMetadata> getTable(String name) {
-        return Optional.ofNullable(tables.get(name));
+    public synchronized boolean tableExists(String name) {
+        return store != null ? directory.containsKey(name) : tables.containsKey(name);
+    }
+    
+    public synchronized Optional<TableMetadata> getTable(String name) {
+        TableMetadata table = tables.get(name);
+        if (table == null && store != null) {
+            Integer handle = directory.get(name);
+            if (handle != null) {
+                try {
+                    table = store.readTable(handle);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to load table " + name, e);
+                }
+                tables.put(name, table);
+            }
+        }
+        return Optional.ofNullable(table);
     }
     
-    public void addIndex(String tableName, String columnName) {
-        TableMetadata table = tables.get(tableName);
-        if (table != null) {
+    public synchronized void addIndex(String tableName, String columnName) {
+        getTable(tableName).ifPresent(table -> {
             table.addIndex(columnName);
+            persist(table);
+        });
+    }
+    
+    /**
+     * Record the header page of a table's heap once it has been created.
+     */
+    public synchronized void setHeapPageId(String tableName, int heapPageId) {
+        getTable(tableName).ifPresent(table -> {
+            table.setHeapPageId(heapPageId);
+            persist(table);
+        });
+    }
+    
+    private void persist(TableMetadata table) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.updateTable(directory.get(table.getName()), table);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to store table " + table.getName(), e);
         }
     }
     
-    public Map<String, TableMetadata> getAllTables() {
-        return new HashMap<>(tables);
+    /**
+     * Get every table. For a stored catalog this loads all table entries.
+     */
+    public synchronized Map<String, TableMetadata> getAllTables() {
+        if (store == null) {
+            return new HashMap<>(tables);
+        }
+        Map<String, TableMetadata> all = new HashMap<>();
+        for (String name : directory.keySet()) {
+            getTable(name).ifPresent(table -> all.put(name, table));
+        }
+        return all;
     }
 }
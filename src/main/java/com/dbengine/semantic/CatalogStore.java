@@ -0,0 +1,32 @@
+package com.dbengine.semantic;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Durable storage for catalog entries. The directory maps table names to
+ * entry handles and is small enough to read at startup; full table metadata
+ * is only read when a table is first used.
+ */
+public interface CatalogStore {
+    
+    /**
+     * Read every table name and the handle of its entry.
+     */
+    Map<String, Integer> readDirectory() throws IOException;
+    
+    /**
+     * Read the metadata stored under an entry handle.
+     */
+    TableMetadata readTable(int handle) throws IOException;
+    
+    /**
+     * Store a new table and add it to the directory. Returns its entry handle.
+     */
+    int addTable(TableMetadata table) throws IOException;
+    
+    /**
+     * Overwrite the metadata stored under an existing entry handle.
+     */
+    void updateTable(int handle, TableMetadata table) throws IOException;
+}
@@ -1,20 +1,29 @@
 package com.dbengine.semantic;
 
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
  * Metadata for a single table in the catalog.
  */
 public class TableMetadata {
+    public static final int NO_HEAP = -1;
+    
     private final String name;
     private final Schema schema;
     private final Set<String> indexedColumns;
+    private int heapPageId;  //table heap header page, or NO_HEAP before the heap exists
     
     public TableMetadata(String name, Schema schema) {
+        this(name, schema, NO_HEAP);
+    }
+    
+    public TableMetadata(String name, Schema schema, int heapPageId) {
         this.name = name;
         this.schema = schema;
-        this.indexedColumns = new HashSet<>();
+        this.indexedColumns = new LinkedHashSet<>();
+        this.heapPageId = heapPageId;
     }
     
     public String getName() {
@@ -25,6 +34,14 @@ public class TableMetadata {
         return schema;
     }
     
+    public int getHeapPageId() {
+        return heapPageId;
+    }
+    
+    void setHeapPageId(int heapPageId) {
+        this.heapPageId = heapPageId;
+    }
+    
     public void addIndex(String columnName) {
         indexedColumns.add(columnName);
     }
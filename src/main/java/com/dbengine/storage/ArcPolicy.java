@@ -0,0 +1,100 @@
+package com.dbengine.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha).
+ * T1 holds pages seen once recently and T2 pages seen at least twice. Ghost
+ * lists B1 and B2 remember pages recently evicted from each, and hits on them
+ * move the target size p of T1 towards whichever side is losing useful pages.
+ */
+public class ArcPolicy implements ReplacementPolicy {
+    private final int capacity;
+    private int targetT1;  //"p" in the paper
+    private final LinkedHashSet<Integer> t1;  //frame IDs, LRU order
+    private final LinkedHashSet<Integer> t2;  //frame IDs, LRU order
+    private final LinkedHashSet<Integer> b1;  //ghost page IDs, LRU order
+    private final LinkedHashSet<Integer> b2;  //ghost page IDs, LRU order
+    
+    public ArcPolicy(int poolSize) {
+        this.capacity = poolSize;
+        this.targetT1 = 0;
+        this.t1 = new LinkedHashSet<>();
+        this.t2 = new LinkedHashSet<>();
+        this.b1 = new LinkedHashSet<>();
+        this.b2 = new LinkedHashSet<>();
+    }
+    
+    @Override
+    public synchronized void recordLoad(int frameId, int pageId) {
+        if (b1.remove(pageId) || b2.remove(pageId)) {
+            t2.add(frameId);
+        } else {
+            t1.add(frameId);
+        }
+        trimGhosts();
+    }
+    
+    @Override
+    public synchronized void recordAccess(int frameId) {
+        if (t1.remove(frameId) || t2.remove(frameId)) {
+            t2.add(frameId);
+        }
+    }
+    
+    @Override
+    public synchronized void recordRemove(int frameId, int pageId) {
+        if (t1.remove(frameId)) {
+            b1.add(pageId);
+        } else if (t2.remove(frameId)) {
+            b2.add(pageId);
+        }
+        trimGhosts();
+    }
+    
+    @Override
+    public synchronized int selectVictim(int incomingPageId, IntPredicate tryClaim) {
+        //adapt the T1 target on ghost hits
+        boolean inB2 = b2.contains(incomingPageId);
+        if (b1.contains(incomingPageId)) {
+            targetT1 = Math.min(capacity, targetT1 + Math.max(b2.size() / b1.size(), 1));
+        } else if (inB2) {
+            targetT1 = Math.max(0, targetT1 - Math.max(b1.size() / b2.size(), 1));
+        }
+        
+        boolean fromT1 = !t1.isEmpty() && (t1.size() > targetT1 || (inB2 && t1.size() == targetT1));
+        int victim = claimFirst(fromT1 ? t1 : t2, tryClaim);
+        return victim != -1 ? victim : claimFirst(fromT1 ? t2 : t1, tryClaim);
+    }
+    
+    private int claimFirst(LinkedHashSet<Integer> list, IntPredicate tryClaim) {
+        for (int frameId : list) {
+            if (tryClaim.test(frameId)) {
+                return frameId;
+            }
+        }
+        return -1;
+    }
+    
+    private void trimGhosts() {
+        while (!b1.isEmpty() && t1.size() + b1.size() > capacity) {
+            removeOldest(b1);
+        }
+        while (!b2.isEmpty() && t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity) {
+            removeOldest(b2);
+        }
+    }
+    
+    private void removeOldest(LinkedHashSet<Integer> list) {
+        Iterator<Integer> oldest = list.iterator();
+        oldest.next();
+        oldest.remove();
+    }
+    
+    @Override
+    public String getName() {
+        return "ARC";
+    }
+}
@@ -0,0 +1,62 @@
+package com.dbengine.storage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Daemon thread that periodically writes dirty, unpinned pages from the buffer
+ * pool so that evictions rarely have to write a page synchronously. Each round
+ * writes a bounded number of pages and, under SyncPolicy.BATCH, ends with one
+ * sync for the whole round.
+ */
+public class BackgroundWriter {
+    private static final int MAX_PAGES_PER_ROUND = 100;
+    
+    private final BufferPool bufferPool;
+    private final long intervalMillis;
+    private final Thread thread;
+    private volatile boolean running;
+    
+    public BackgroundWriter(BufferPool bufferPool, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Background writer interval must be positive");
+        }
+        this.bufferPool = bufferPool;
+        this.intervalMillis = intervalMillis;
+        this.thread = new Thread(this::run, "buffer-pool-writer");
+        this.thread.setDaemon(true);
+    }
+    
+    public void start() {
+        running = true;
+        thread.start();
+    }
+    
+    /**
+     * Stop the writer and wait for the current round to finish. The thread is
+     * woken with unpark rather than interrupted, because an interrupt during
+     * I/O closes the FileChannel.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void run() {
+        while (running) {
+            try {
+                bufferPool.writeDirtyPages(MAX_PAGES_PER_ROUND);
+            } catch (IOException e) {
+                //the page stays dirty and is written on eviction or at the next checkpoint
+                System.err.println("Background writer failed: " + e.getMessage());
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(intervalMillis));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.dbengine.storage;
+
+import java.util.Arrays;
+
+/**
+ * Private ring of buffer pool frames for bulk operations, modeled on
+ * PostgreSQL's buffer access strategies. Pages a large scan or bulk load pulls
+ * in are recycled within the ring instead of displacing the rest of the pool.
+ * A strategy belongs to a single scan or loader and is not thread-safe; the
+ * pool only touches it while holding its replacement lock.
+ */
+public class BufferAccessStrategy {
+    
+    public enum Type {
+        BULK_READ(32),    //large sequential scans
+        BULK_WRITE(256);  //bulk loads and large modify/remove sweeps
+        
+        private final int ringSize;
+        
+        Type(int ringSize) {
+            this.ringSize = ringSize;
+        }
+        
+        public int getRingSize() {
+            return ringSize;
+        }
+    }
+    
+    private final Type type;
+    private final int[] frameIds;
+    private final int[] pageIds;
+    private int current;
+    
+    BufferAccessStrategy(Type type, int ringSize) {
+        this.type = type;
+        this.frameIds = new int[ringSize];
+        this.pageIds = new int[ringSize];
+        Arrays.fill(frameIds, -1);
+        Arrays.fill(pageIds, Page.INVALID_PAGE_ID);
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public int getRingSize() {
+        return frameIds.length;
+    }
+    
+    /**
+     * Frame in the ring slot that will be reused next, or -1 while the ring is filling.
+     */
+    int currentFrameId() {
+        return frameIds[current];
+    }
+    
+    /**
+     * Page the ring last placed in the current slot's frame.
+     */
+    int currentPageId() {
+        return pageIds[current];
+    }
+    
+    /**
+     * Remember that a page was loaded into a frame for this strategy and advance the ring.
+     */
+    void recordUse(int frameId, int pageId) {
+        frameIds[current] = frameId;
+        pageIds[current] = pageId;
+        current = (current + 1) % frameIds.length;
+    }
+}
@@ -1,155 +1,601 @@
 package com.dbengine.storage;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Buffer pool with LRU eviction policy.
- * Manages in-memory pages and handles page replacement when full.
+ * Buffer pool with a pluggable page replacement policy (CLOCK by default).
+ * Pages live in a fixed array of off-heap frames. Lookups go through a concurrent page
+ * table and pin frames with atomic pin counts, so cache hits never take a
+ * global lock. Only misses (frame replacement) are serialized.
+ * Pages can also be prefetched on a background I/O executor.
+ * Page IDs are global addresses into the pool's tablespace, and each page is
+ * read from and written to the data file its ID names.
  */
 public class BufferPool {
-    private final DiskManager diskManager;
+    private static final int IO_THREADS = 4;
+    private static final int MAX_FLUSH_RUN = 64;  //pages per gathering write
+    private static final int CHUNK_SIZE = 256 * 1024 * 1024;  //bytes of direct memory per allocation
+    
+    private final Tablespace tablespace;
     private final int poolSize;
-    private final Map<Integer, Page> pages;
-    private final LinkedList<Integer> lruList;
+    private final int pageSize;
+    private final Page[] frames;
+    private final ConcurrentHashMap<Integer, Page> pageTable;
+    private final ReplacementPolicy policy;
+    private final ReentrantLock replacementLock;
+    private final ArrayDeque<Page> freeFrames;  //guarded by replacementLock
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final ExecutorService ioExecutor;
+    private final Set<Integer> prefetchesInFlight;
+    private int writerCursor;  //next frame the background writer looks at
     
     public BufferPool(DiskManager diskManager, int poolSize) {
-        this.diskManager = diskManager;
+        this(diskManager, poolSize, ReplacementPolicyType.CLOCK);
+    }
+    
+    public BufferPool(DiskManager diskManager, int poolSize, ReplacementPolicyType policyType) {
+        this(diskManager, poolSize, policyType.create(poolSize));
+    }
+    
+    public BufferPool(DiskManager diskManager, int poolSize, ReplacementPolicy policy) {
+        this(new Tablespace(diskManager), poolSize, policy);
+    }
+    
+    public BufferPool(Tablespace tablespace, int poolSize, ReplacementPolicyType policyType) {
+        this(tablespace, poolSize, policyType.create(poolSize));
+    }
+    
+    public BufferPool(Tablespace tablespace, int poolSize, ReplacementPolicy policy) {
+        this.tablespace = tablespace;
         this.poolSize = poolSize;
-        this.pages = new HashMap<>();
-        this.lruList = new LinkedList<>();
+        this.pageSize = tablespace.getPageSize();
+        this.frames = new Page[poolSize];
+        this.pageTable = new ConcurrentHashMap<>(poolSize * 2);
+        this.policy = policy;
+        this.replacementLock = new ReentrantLock();
+        this.freeFrames = new ArrayDeque<>(poolSize);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.ioExecutor = Executors.newFixedThreadPool(IO_THREADS, task -> {
+            Thread thread = new Thread(task, "buffer-pool-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.prefetchesInFlight = ConcurrentHashMap.newKeySet();
+        
+        allocateFrames();
+    }
+    
+    /**
+     * Carve the frames out of a few large direct buffers. Frame memory lives
+     * outside the Java heap, so the pool size is bounded by
+     * -XX:MaxDirectMemorySize rather than -Xmx and frames are never copied
+     * by the garbage collector. Direct buffers also let channel reads and
+     * writes skip the temporary buffer used for heap buffers.
+     */
+    private void allocateFrames() {
+        int framesPerChunk = CHUNK_SIZE / pageSize;
+        ByteBuffer chunk = null;
+        for (int i = 0; i < poolSize; i++) {
+            int slot = i % framesPerChunk;
+            if (slot == 0) {
+                int chunkFrames = Math.min(framesPerChunk, poolSize - i);
+                chunk = ByteBuffer.allocateDirect(chunkFrames * pageSize);
+            }
+            frames[i] = Page.frame(i, chunk.slice(slot * pageSize, pageSize));
+            freeFrames.add(frames[i]);
+        }
     }
     
     /**
      * Fetch a page from the buffer pool. If not present, load from disk.
      */
-    public synchronized Page fetchPage(int pageId) throws IOException {
-        //check if page is already in buffer pool
-        if (pages.containsKey(pageId)) {
-            Page page = pages.get(pageId);
-            page.pin();
-            updateLRU(pageId);
-            return page;
+    public Page fetchPage(int pageId) throws IOException {
+        return fetchPage(pageId, null);
+    }
+    
+    /**
+     * Fetch a page, recycling frames from the strategy's ring on a miss.
+     */
+    public Page fetchPage(int pageId, BufferAccessStrategy strategy) throws IOException {
+        while (true) {
+            //fast path: page is already resident
+            Page page = pageTable.get(pageId);
+            if (page != null && page.tryPin()) {
+                if (page.getPageId() == pageId) {
+                    page.awaitIo();
+                    if (page.getPageId() == pageId) {
+                        if (page.takePrefetched()) {
+                            //first reference to a page read ahead: the policy saw its load, not a reuse
+                            misses.increment();
+                        } else {
+                            policy.recordAccess(page.getFrameId());
+                            hits.increment();
+                        }
+                        return page;
+                    }
+                }
+                page.unpin();
+            }
+            
+            //slow path: load from disk (returns null if another thread got there first)
+            page = loadPage(pageId, strategy, false);
+            if (page != null) {
+                return page;
+            }
+        }
+    }
+    
+    /**
+     * Load a missing page into a frame and return it pinned, or return null if
+     * it is already resident. A prefetch load counts for the policy but not in
+     * the hit/miss statistics; the page's first fetch is counted instead.
+     */
+    private Page loadPage(int pageId, BufferAccessStrategy strategy, boolean prefetch) throws IOException {
+        Page frame;
+        replacementLock.lock();
+        try {
+            if (pageTable.containsKey(pageId)) {
+                return null;
+            }
+            
+            frame = acquireFrame(pageId, strategy);
+            frame.setPageId(pageId);
+            frame.setPrefetched(prefetch);
+            frame.beginIo();
+            frame.releaseClaim(1);
+            policy.recordLoad(frame.getFrameId(), pageId);
+            pageTable.put(pageId, frame);
+        } finally {
+            replacementLock.unlock();
         }
         
-        //need to load from disk
-        if (pages.size() >= poolSize) {
-            evictPage();
+        //read outside the replacement lock so other misses can proceed
+        try {
+            tablespace.fileOf(pageId).readPage(pageId, frame);
+        } catch (IOException e) {
+            discardFailedLoad(frame, pageId);
+            throw e;
+        } finally {
+            frame.endIo();
         }
         
-        Page page = diskManager.readPage(pageId);
-        page.pin();
-        pages.put(pageId, page);
-        lruList.addFirst(pageId);
+        if (!prefetch) {
+            misses.increment();
+        }
+        return frame;
+    }
+    
+    private void discardFailedLoad(Page frame, int pageId) {
+        replacementLock.lock();
+        try {
+            pageTable.remove(pageId, frame);
+            policy.recordRemove(frame.getFrameId(), pageId);
+            frame.setPageId(Page.INVALID_PAGE_ID);
+            frame.unpin();
+            freeFrames.add(frame);
+        } finally {
+            replacementLock.unlock();
+        }
+    }
+    
+    /**
+     * Start loading a page on the background I/O executor so that a later
+     * fetchPage finds it in memory. That fetch is still the page's first
+     * reference: it counts as a miss and not as a reuse for the replacement
+     * policy. Does nothing if the page is resident or already queued.
+     */
+    public void prefetchPage(int pageId, BufferAccessStrategy strategy) {
+        if (pageTable.containsKey(pageId) || !prefetchesInFlight.add(pageId)) {
+            return;
+        }
         
-        return page;
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    Page page = loadPage(pageId, strategy, true);
+                    if (page != null) {
+                        page.unpin();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    //best effort: the scan reads the page itself if it is still missing
+                } finally {
+                    prefetchesInFlight.remove(pageId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            prefetchesInFlight.remove(pageId);
+        }
+    }
+    
+    public boolean isResident(int pageId) {
+        return pageTable.containsKey(pageId);
+    }
+    
+    /**
+     * Whether a page is resident and its read has completed. A page is
+     * resident as soon as its load starts.
+     */
+    public boolean isLoaded(int pageId) {
+        Page page = pageTable.get(pageId);
+        return page != null && page.getPageId() == pageId && !page.isIoInProgress();
     }
     
     /**
      * Unpin a page, making it eligible for eviction.
      */
-    public synchronized void unpinPage(int pageId, boolean isDirty) {
-        Page page = pages.get(pageId);
+    public void unpinPage(int pageId, boolean isDirty) {
+        Page page = pageTable.get(pageId);
         if (page != null) {
-            page.unpin();
+            //mark dirty before unpinning so an evictor never sees a clean, unpinned page
             if (isDirty) {
                 page.setDirty(true);
             }
+            page.unpin();
         }
     }
     
     /**
      * Flush a specific page to disk.
      */
-    public synchronized void flushPage(int pageId) throws IOException {
-        Page page = pages.get(pageId);
-        if (page != null && page.isDirty()) {
-            diskManager.writePage(page);
+    public void flushPage(int pageId) throws IOException {
+        Page page = pageTable.get(pageId);
+        if (page != null) {
+            flushFrame(page, pageId);
+            tablespace.fileOf(pageId).sync();
         }
     }
     
     /**
-     * Flush all dirty pages to disk.
+     * Write a page back to its data file now if it is dirty, without forcing
+     * it to stable storage. Used to order writes: a page written this way
+     * reaches the file before any page that is dirtied after the call.
      */
-    public synchronized void flushAllPages() throws IOException {
-        for (Page page : pages.values()) {
-            if (page.isDirty()) {
-                diskManager.writePage(page);
-            }
+    public void writeBack(int pageId) throws IOException {
+        Page page = pageTable.get(pageId);
+        if (page != null) {
+            flushFrame(page, pageId);
         }
     }
     
     /**
-     * Create a new page and add it to the buffer pool.
+     * Flush all dirty pages to disk, followed by a single sync. Dirty pages are
+     * written in page ID order, and runs of adjacent pages are coalesced into
+     * one gathering write each.
      */
-    public synchronized Page newPage() throws IOException {
-        if (pages.size() >= poolSize) {
-            evictPage();
+    public void flushAllPages() throws IOException {
+        //snapshot (pageId, frameId) pairs: page IDs can change under a concurrent eviction
+        long[] dirty = new long[poolSize];
+        int count = 0;
+        for (Page page : frames) {
+            int pageId = page.getPageId();
+            if (pageId != Page.INVALID_PAGE_ID && page.isDirty()) {
+                dirty[count++] = ((long) pageId << 32) | page.getFrameId();
+            }
         }
+        Arrays.sort(dirty, 0, count);
         
-        int pageId = diskManager.allocatePage();
-        Page page = new Page(pageId);
-        page.pin();
-        pages.put(pageId, page);
-        lruList.addFirst(pageId);
+        List<Page> run = new ArrayList<>(MAX_FLUSH_RUN);
+        int nextPageId = Page.INVALID_PAGE_ID;
+        try {
+            for (int i = 0; i < count; i++) {
+                int pageId = (int) (dirty[i] >>> 32);
+                Page page = frames[(int) dirty[i]];
+                //the first page of a data file never continues a run from the previous file
+                if (pageId != nextPageId || run.size() == MAX_FLUSH_RUN || Tablespace.pageNo(pageId) == 0) {
+                    writeRun(run);
+                }
+                //pin so the frame cannot be recycled while it is being written
+                if (!page.tryPin()) {
+                    continue;  //being evicted, which writes it anyway
+                }
+                if (page.getPageId() != pageId || !page.isDirty()) {
+                    page.unpin();
+                    continue;
+                }
+                run.add(page);
+                nextPageId = pageId + 1;
+            }
+            writeRun(run);
+        } finally {
+            for (Page page : run) {
+                page.unpin();
+            }
+        }
+        tablespace.sync();
+    }
+    
+    /**
+     * Write and unpin a run of pinned pages with consecutive IDs, then clear it.
+     */
+    private void writeRun(List<Page> run) throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        try {
+            DiskManager file = tablespace.fileOf(run.get(0).getPageId());
+            if (run.size() == 1) {
+                file.writePage(run.get(0));
+            } else {
+                file.writePages(run);
+            }
+        } finally {
+            for (Page page : run) {
+                page.unpin();
+            }
+            run.clear();
+        }
+    }
+    
+    /**
+     * Write out up to maxPages dirty, unpinned pages so that later evictions
+     * find clean frames. Continues the sweep where the previous call stopped.
+     * Called by the background writer.
+     *
+     * @return the number of pages written
+     */
+    public synchronized int writeDirtyPages(int maxPages) throws IOException {
+        int written = 0;
+        for (int scanned = 0; scanned < poolSize && written < maxPages; scanned++) {
+            Page page = frames[writerCursor];
+            writerCursor = (writerCursor + 1) % poolSize;
+            
+            int pageId = page.getPageId();
+            if (pageId != Page.INVALID_PAGE_ID && page.isDirty() && !page.isPinned()
+                    && flushFrame(page, pageId)) {
+                written++;
+            }
+        }
+        if (written > 0) {
+            tablespace.syncBatch();
+        }
+        return written;
+    }
+    
+    private boolean flushFrame(Page page, int pageId) throws IOException {
+        //pin so the frame cannot be recycled while it is being written
+        if (!page.tryPin()) {
+            return false;  //being evicted, which writes it anyway
+        }
+        try {
+            if (page.getPageId() == pageId && page.isDirty()) {
+                tablespace.fileOf(pageId).writePage(page);
+                return true;
+            }
+            return false;
+        } finally {
+            page.unpin();
+        }
+    }
+    
+    /**
+     * Create a new page in the main data file and add it to the buffer pool.
+     */
+    public Page newPage() throws IOException {
+        return newPage(Tablespace.MAIN_FILE, null);
+    }
+    
+    /**
+     * Create a new page in the main data file, recycling frames from the strategy's ring.
+     */
+    public Page newPage(BufferAccessStrategy strategy) throws IOException {
+        return newPage(Tablespace.MAIN_FILE, strategy);
+    }
+    
+    /**
+     * Create a new page in the given data file.
+     */
+    public Page newPage(int fileId, BufferAccessStrategy strategy) throws IOException {
+        int pageId = tablespace.getFile(fileId).allocatePage();
         
-        return page;
+        replacementLock.lock();
+        try {
+            Page frame = acquireFrame(pageId, strategy);
+            frame.clear();
+            frame.setDirty(false);
+            frame.setPageId(pageId);
+            frame.setPrefetched(false);
+            frame.releaseClaim(1);
+            policy.recordLoad(frame.getFrameId(), pageId);
+            pageTable.put(pageId, frame);
+            return frame;
+        } finally {
+            replacementLock.unlock();
+        }
+    }
+    
+    /**
+     * Allocate count consecutive pages in a data file without bringing them
+     * into the pool. Returns the ID of the first one.
+     */
+    public int allocatePages(int fileId, int count) throws IOException {
+        return tablespace.getFile(fileId).allocatePages(count);
+    }
+    
+    /**
+     * Write pages that were built outside the pool straight to disk, as one
+     * run. The pages must come from allocatePages and must not have been
+     * fetched since, so that no frame holds an older copy of them.
+     */
+    public void writeNewPages(List<Page> run) throws IOException {
+        tablespace.fileOf(run.get(0).getPageId()).writePages(run);
+    }
+    
+    /**
+     * Discard every cached page of a data file without writing it back, then
+     * delete the file. Fails if one of its pages is pinned.
+     */
+    public void dropFile(int fileId) throws IOException {
+        for (int pageId : pageTable.keySet()) {
+            if (Tablespace.fileId(pageId) == fileId) {
+                deletePage(pageId);
+            }
+        }
+        tablespace.dropFile(fileId);
     }
     
     /**
      * Delete a page from the buffer pool.
      */
-    public synchronized void deletePage(int pageId) throws IOException {
-        Page page = pages.get(pageId);
-        if (page != null) {
-            if (page.isPinned()) {
-                throw new IllegalStateException("Cannot delete pinned page " + pageId);
+    public void deletePage(int pageId) throws IOException {
+        replacementLock.lock();
+        try {
+            Page page = pageTable.get(pageId);
+            if (page != null) {
+                if (!page.tryClaim()) {
+                    throw new IllegalStateException("Cannot delete pinned page " + pageId);
+                }
+                pageTable.remove(pageId, page);
+                policy.recordRemove(page.getFrameId(), pageId);
+                page.setPageId(Page.INVALID_PAGE_ID);
+                page.setDirty(false);
+                page.releaseClaim(0);
+                freeFrames.add(page);
             }
-            pages.remove(pageId);
-            lruList.remove(Integer.valueOf(pageId));
+        } finally {
+            replacementLock.unlock();
         }
     }
     
     /**
-     * Evict a page using LRU policy.
+     * Create a ring-buffer access strategy sized for this pool.
      */
-    private void evictPage() throws IOException {
-        //find an unpinned page to evict
-        for (int i = lruList.size() - 1; i >= 0; i--) {
-            int pageId = lruList.get(i);
-            Page page = pages.get(pageId);
-            
-            if (page != null && !page.isPinned()) {
-                if (page.isDirty()) {
-                    diskManager.writePage(page);
+    public BufferAccessStrategy newAccessStrategy(BufferAccessStrategy.Type type) {
+        int ringSize = Math.max(1, Math.min(type.getRingSize(), poolSize / 8));
+        return new BufferAccessStrategy(type, ringSize);
+    }
+    
+    /**
+     * Get a frame for a new page. With a strategy, the frame in the ring's next
+     * slot is recycled when it is still ours and unpinned. Otherwise take a free
+     * frame or evict one chosen by the replacement policy. The returned frame is
+     * claimed; the caller must release the claim. Must be called with the
+     * replacement lock held.
+     */
+    private Page acquireFrame(int incomingPageId, BufferAccessStrategy strategy) throws IOException {
+        if (strategy != null) {
+            int ringFrameId = strategy.currentFrameId();
+            if (ringFrameId != -1) {
+                Page frame = frames[ringFrameId];
+                if (frame.getPageId() == strategy.currentPageId() && frame.tryClaim()) {
+                    evictFrame(frame);
+                    strategy.recordUse(ringFrameId, incomingPageId);
+                    return frame;
                 }
-                pages.remove(pageId);
-                lruList.remove(i);
-                return;
             }
         }
         
-        throw new IllegalStateException("No pages available for eviction - all pages are pinned");
+        Page frame = pollFreeFrame();
+        if (frame == null) {
+            int victim = policy.selectVictim(incomingPageId, frameId -> frames[frameId].tryClaim());
+            if (victim == -1) {
+                throw new IllegalStateException("No pages available for eviction - all pages are pinned");
+            }
+            frame = frames[victim];
+            evictFrame(frame);
+        }
+        
+        if (strategy != null) {
+            strategy.recordUse(frame.getFrameId(), incomingPageId);
+        }
+        return frame;
+    }
+    
+    private Page pollFreeFrame() {
+        //a free frame can still be pinned briefly by a reader that raced a failed load
+        List<Page> busy = new ArrayList<>();
+        Page claimed = null;
+        while (claimed == null && !freeFrames.isEmpty()) {
+            Page frame = freeFrames.poll();
+            if (frame.tryClaim()) {
+                claimed = frame;
+            } else {
+                busy.add(frame);
+            }
+        }
+        freeFrames.addAll(busy);
+        return claimed;
     }
     
     /**
-     * Update LRU list when a page is accessed.
+     * Write back and unmap a claimed frame.
      */
-    private void updateLRU(int pageId) {
-        lruList.remove(Integer.valueOf(pageId));
-        lruList.addFirst(pageId);
+    private void evictFrame(Page frame) throws IOException {
+        int oldPageId = frame.getPageId();
+        if (oldPageId == Page.INVALID_PAGE_ID) {
+            return;
+        }
+        
+        if (frame.isDirty()) {
+            try {
+                tablespace.fileOf(oldPageId).writePage(frame);
+            } catch (IOException e) {
+                frame.releaseClaim(0);
+                throw e;
+            }
+        }
+        pageTable.remove(oldPageId, frame);
+        policy.recordRemove(frame.getFrameId(), oldPageId);
+        evictions.increment();
     }
     
     /**
      * Get buffer pool statistics.
      */
-    public synchronized int getPoolSize() {
+    public int getPoolSize() {
         return poolSize;
     }
     
-    public synchronized int getNumPages() {
-        return pages.size();
+    public int getPageSize() {
+        return pageSize;
+    }
+    
+    public Tablespace getTablespace() {
+        return tablespace;
+    }
+    
+    public int getNumPages() {
+        return pageTable.size();
+    }
+    
+    public String getPolicyName() {
+        return policy.getName();
+    }
+    
+    public BufferPoolStats getStats() {
+        return new BufferPoolStats(policy.getName(), hits.sum(), misses.sum(), evictions.sum());
+    }
+    
+    public double getHitRatio() {
+        return getStats().hitRatio();
+    }
+    
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+    
+    /**
+     * Stop accepting prefetches. Already queued reads still complete; the
+     * executor is not interrupted because an interrupt closes the FileChannel.
+     */
+    public void close() {
+        ioExecutor.shutdown();
     }
 }
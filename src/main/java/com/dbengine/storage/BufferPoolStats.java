@@ -0,0 +1,18 @@
+package com.dbengine.storage;
+
+/**
+ * Snapshot of buffer pool hit/miss counters for one replacement policy.
+ */
+public record BufferPoolStats(String policy, long hits, long misses, long evictions) {
+    
+    public double hitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s: %,d hits, %,d misses, %,d evictions (hit ratio %.2f%%)",
+            policy, hits, misses, evictions, hitRatio() * 100);
+    }
+}
@@ -0,0 +1,63 @@
+package com.dbengine.storage;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK (second chance) replacement.
+ * Hits only set a reference bit, so they never block.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    private final int poolSize;
+    private final AtomicIntegerArray referenceBits;
+    private final boolean[] resident;  //guarded by the pool's replacement lock
+    private int clockHand;             //guarded by the pool's replacement lock
+    
+    public ClockPolicy(int poolSize) {
+        this.poolSize = poolSize;
+        this.referenceBits = new AtomicIntegerArray(poolSize);
+        this.resident = new boolean[poolSize];
+    }
+    
+    @Override
+    public void recordLoad(int frameId, int pageId) {
+        resident[frameId] = true;
+        referenceBits.set(frameId, 1);
+    }
+    
+    @Override
+    public void recordAccess(int frameId) {
+        referenceBits.set(frameId, 1);
+    }
+    
+    @Override
+    public void recordRemove(int frameId, int pageId) {
+        resident[frameId] = false;
+        referenceBits.set(frameId, 0);
+    }
+    
+    @Override
+    public int selectVictim(int incomingPageId, IntPredicate tryClaim) {
+        //sweep at most twice: the first pass may only clear reference bits
+        for (int scanned = 0; scanned < 2 * poolSize; scanned++) {
+            int frameId = clockHand;
+            clockHand = (clockHand + 1) % poolSize;
+            
+            if (!resident[frameId]) {
+                continue;
+            }
+            if (referenceBits.getAndSet(frameId, 0) == 1) {
+                continue;  //second chance
+            }
+            if (tryClaim.test(frameId)) {
+                return frameId;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public String getName() {
+        return "CLOCK";
+    }
+}
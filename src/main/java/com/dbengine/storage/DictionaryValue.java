@@ -0,0 +1,60 @@
+package com.dbengine.storage;
+
+/**
+ * A string stored as a code in its table's dictionary. Values from the same
+ * dictionary are compared and sorted by code, so filters and sorts on such
+ * columns do not need to build strings; get returns the string itself.
+ */
+public final class DictionaryValue {
+    private final StringDictionary dictionary;
+    private final int code;
+    
+    DictionaryValue(StringDictionary dictionary, int code) {
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+    
+    public String get() {
+        return dictionary.get(code);
+    }
+    
+    public int getCode() {
+        return code;
+    }
+    
+    StringDictionary getDictionary() {
+        return dictionary;
+    }
+    
+    public boolean sameDictionary(DictionaryValue other) {
+        return dictionary == other.dictionary;
+    }
+    
+    /**
+     * Position of the value in the sorted order of its dictionary.
+     */
+    public int rank() {
+        return dictionary.rank(code);
+    }
+    
+    /**
+     * Whether this value equals another value, comparing codes where possible.
+     */
+    public boolean matches(Object other) {
+        if (other instanceof DictionaryValue value && value.dictionary == dictionary) {
+            return value.code == code;
+        }
+        if (other instanceof String s) {
+            return dictionary.codeOf(s) == code;
+        }
+        if (other instanceof DictionaryValue value) {
+            return value.get().equals(get());
+        }
+        return false;
+    }
+    
+    @Override
+    public String toString() {
+        return get();
+    }
+}
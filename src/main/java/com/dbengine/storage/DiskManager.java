@@ -5,80 +5,396 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages page-level I/O with the disk.
  * Provides methods to read and write pages from/to disk files.
+ *
+ * A data file starts with a header page that records the page size the
+ * database was created with; page N is stored right after it, at offset
+ * (N + 1) * pageSize. Files written before the header existed are opened
+ * as headerless 4KB-page files.
+ *
+ * Page IDs are global addresses that include the file ID (see Tablespace);
+ * a DiskManager only uses their page number part to find the page.
+ *
+ * Pages are handed out from extents of EXTENT_PAGES pages. The file grows
+ * several extents at a time and is filled with zeros, so space is laid out
+ * contiguously ahead of demand and most allocations only bump an in-memory
+ * count. The header records how many pages are allocated: when an extent is
+ * started it records the whole extent, so a page is never handed out twice
+ * even after a crash, and a clean close records the exact count.
+ *
+ * Page reads and writes use positional I/O and take no lock, so any number
+ * of threads can have reads in flight on the same file. Only gathering
+ * writes of page runs, which go through the channel position, are
+ * serialized with each other.
  */
 public class DiskManager {
+    private static final int HEADER_MAGIC = 0x44424531;  //"DBE1"
+    private static final int FORMAT_VERSION = 2;  //version 2 added the allocated page count
+    private static final int HEADER_MAGIC_OFFSET = 0;
+    private static final int HEADER_VERSION_OFFSET = 4;
+    private static final int HEADER_PAGE_SIZE_OFFSET = 8;
+    private static final int HEADER_ALLOCATED_PAGES_OFFSET = 12;
+    private static final int HEADER_FIELDS_SIZE = 16;
+    static final int EXTENT_PAGES = 64;
+    private static final int GROWTH_EXTENTS = 4;  //extents added each time the file grows
+    
     private final RandomAccessFile file;
     private final FileChannel channel;
+    private final SyncPolicy syncPolicy;
+    private final AtomicBoolean unsynced;  //written since the last force
+    private final int pageSize;
+    private final long dataOffset;  //file offset of page 0
+    private final int fileId;
+    private final ReentrantLock gatherLock;  //held while a run is written through the channel position
+    private final ReentrantLock allocationLock;
+    private int allocatedPages;   //guarded by allocationLock
+    private int reservedPages;    //allocated page count in the header, guarded by allocationLock
+    private long filePages;       //pages the file has room for, guarded by allocationLock
     
     public DiskManager(Path dbFilePath) throws IOException {
+        this(dbFilePath, SyncPolicy.BATCH);
+    }
+    
+    public DiskManager(Path dbFilePath, SyncPolicy syncPolicy) throws IOException {
+        this(dbFilePath, Page.PAGE_SIZE, syncPolicy);
+    }
+    
+    /**
+     * Open a data file, creating it with the given page size if it is empty.
+     * An existing file keeps the page size recorded in its header.
+     */
+    public DiskManager(Path dbFilePath, int pageSize, SyncPolicy syncPolicy) throws IOException {
+        this(dbFilePath, pageSize, syncPolicy, Tablespace.MAIN_FILE);
+    }
+    
+    /**
+     * Open a data file whose pages are addressed with the given file ID.
+     */
+    public DiskManager(Path dbFilePath, int pageSize, SyncPolicy syncPolicy, int fileId) throws IOException {
+        Page.checkPageSize(pageSize);
+        this.fileId = fileId;
         this.file = new RandomAccessFile(dbFilePath.toFile(), "rw");
         this.channel = file.getChannel();
+        this.syncPolicy = syncPolicy;
+        this.unsynced = new AtomicBoolean();
+        this.gatherLock = new ReentrantLock();
+        this.allocationLock = new ReentrantLock();
+        
+        try {
+            if (channel.size() == 0) {
+                writeHeader(pageSize);
+                this.pageSize = pageSize;
+                this.dataOffset = pageSize;
+                this.allocatedPages = 0;
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_FIELDS_SIZE);
+                channel.read(header, 0);
+                if (header.getInt(HEADER_MAGIC_OFFSET) == HEADER_MAGIC) {
+                    int version = header.getInt(HEADER_VERSION_OFFSET);
+                    if (version < 1 || version > FORMAT_VERSION) {
+                        throw new IOException("Unsupported data file version " + version + ": " + dbFilePath);
+                    }
+                    this.pageSize = header.getInt(HEADER_PAGE_SIZE_OFFSET);
+                    Page.checkPageSize(this.pageSize);
+                    this.dataOffset = this.pageSize;
+                    //version 1 files were never preallocated, so every page in them is allocated
+                    this.allocatedPages = version == 1
+                            ? (int) ((channel.size() - dataOffset) / pageSize)
+                            : header.getInt(HEADER_ALLOCATED_PAGES_OFFSET);
+                    if (version == 1) {
+                        writeAllocatedPages(allocatedPages);
+                    }
+                } else {
+                    //legacy file without a header, which has nowhere to record preallocation
+                    this.pageSize = Page.PAGE_SIZE;
+                    this.dataOffset = 0;
+                    this.allocatedPages = (int) (channel.size() / pageSize);
+                }
+            }
+            this.reservedPages = allocatedPages;
+            this.filePages = Math.max(0, (channel.size() - dataOffset) / pageSize);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+    
+    private void writeHeader(int pageSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(pageSize);
+        header.putInt(HEADER_MAGIC_OFFSET, HEADER_MAGIC);
+        header.putInt(HEADER_VERSION_OFFSET, FORMAT_VERSION);
+        header.putInt(HEADER_PAGE_SIZE_OFFSET, pageSize);
+        header.putInt(HEADER_ALLOCATED_PAGES_OFFSET, 0);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+    }
+    
+    FileChannel getChannel() {
+        return channel;
+    }
+    
+    public int getPageSize() {
+        return pageSize;
+    }
+    
+    public int getFileId() {
+        return fileId;
+    }
+    
+    /**
+     * File offset of the given page.
+     */
+    long pageOffset(int pageId) {
+        return dataOffset + (long) Tablespace.pageNo(pageId) * pageSize;
+    }
+    
+    long getDataOffset() {
+        return dataOffset;
     }
     
     /**
      * Read a page from disk.
      */
     public Page readPage(int pageId) throws IOException {
-        long offset = (long) pageId * Page.PAGE_SIZE;
-        byte[] buffer = new byte[Page.PAGE_SIZE];
+        Page page = new Page(pageId, new byte[pageSize]);
+        readPage(pageId, page);
+        return page;
+    }
+    
+    /**
+     * Read a page from disk directly into an existing buffer pool frame.
+     */
+    public void readPage(int pageId, Page page) throws IOException {
+        long offset = pageOffset(pageId);
+        ByteBuffer frame = page.getBuffer().duplicate().clear();
         
-        synchronized (channel) {
-            channel.position(offset);
-            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-            int bytesRead = channel.read(byteBuffer);
-            
-            if (bytesRead < Page.PAGE_SIZE) {
-                //page doesn't exist yet, return empty page
-                return new Page(pageId);
+        while (frame.hasRemaining()) {
+            if (channel.read(frame, offset + frame.position()) < 0) {
+                break;
             }
         }
         
-        return new Page(pageId, buffer);
+        //page doesn't exist yet, zero the rest of the frame
+        if (frame.hasRemaining()) {
+            frame.put(Page.ZERO_PAGE, 0, frame.remaining());
+        }
+        page.setDirty(false);
     }
     
     /**
-     * Write a page to disk.
+     * Write a page to disk. The write is only forced to stable storage
+     * immediately under SyncPolicy.EVERY_WRITE; otherwise call sync.
      */
     public void writePage(Page page) throws IOException {
-        long offset = (long) page.getPageId() * Page.PAGE_SIZE;
-        byte[] data = page.getBytes();
+        long offset = pageOffset(page.getPageId());
+        ByteBuffer buffer = page.getData();
         
-        synchronized (channel) {
-            channel.position(offset);
-            ByteBuffer buffer = ByteBuffer.wrap(data);
-            channel.write(buffer);
-            channel.force(false);
+        //clear before writing so a concurrent modification re-marks the page
+        page.setDirty(false);
+        
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            afterWrite();
+        } catch (IOException e) {
+            page.setDirty(true);
+            throw e;
+        }
+    }
+    
+    /**
+     * Write a run of pages with consecutive page IDs using one gathering write.
+     */
+    public void writePages(List<Page> run) throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        long offset = pageOffset(run.get(0).getPageId());
+        ByteBuffer[] buffers = new ByteBuffer[run.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            Page page = run.get(i);
+            if (page.getPageId() != run.get(0).getPageId() + i) {
+                throw new IllegalArgumentException("Pages in a run must have consecutive IDs");
+            }
+            page.setDirty(false);
+            buffers[i] = page.getData();
         }
         
-        page.setDirty(false);
+        try {
+            //FileChannel has no positional gathering write, so runs share the channel position
+            gatherLock.lock();
+            try {
+                channel.position(offset);
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+            } finally {
+                gatherLock.unlock();
+            }
+            afterWrite();
+        } catch (IOException e) {
+            for (Page page : run) {
+                page.setDirty(true);
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Force immediately or remember that a sync is owed, depending on the policy.
+     */
+    void afterWrite() throws IOException {
+        if (syncPolicy == SyncPolicy.EVERY_WRITE) {
+            channel.force(false);
+        } else {
+            unsynced.set(true);
+        }
+    }
+    
+    boolean hasUnsyncedWrites() {
+        return unsynced.get();
+    }
+    
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+    
+    /**
+     * Force all pages written since the last sync to stable storage.
+     * Does nothing if nothing has been written.
+     */
+    public void sync() throws IOException {
+        //clear first so a write racing with the force schedules another sync
+        if (unsynced.getAndSet(false)) {
+            try {
+                force();
+            } catch (IOException | RuntimeException e) {
+                unsynced.set(true);
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Force the writes made so far to stable storage. Called by sync once the
+     * pending-sync mark is cleared; subclasses that write pages other than
+     * through the channel force those too.
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+    
+    /**
+     * Sync at the end of a batch of background writes if the policy asks for it.
+     */
+    public void syncBatch() throws IOException {
+        if (syncPolicy == SyncPolicy.BATCH) {
+            sync();
+        }
     }
     
     /**
      * Allocate a new page on disk.
      */
     public int allocatePage() throws IOException {
-        synchronized (channel) {
-            long fileSize = channel.size();
-            int newPageId = (int) (fileSize / Page.PAGE_SIZE);
-            
-            //extend file to accommodate new page
-            channel.position(fileSize + Page.PAGE_SIZE - 1);
-            channel.write(ByteBuffer.wrap(new byte[]{0}));
-            
-            return newPageId;
+        return allocatePages(1);
+    }
+    
+    /**
+     * Allocate count consecutive pages on disk. Returns the ID of the first one.
+     * Only starting a new extent touches the file.
+     */
+    public int allocatePages(int count) throws IOException {
+        allocationLock.lock();
+        try {
+            int firstPageNo = allocatedPages;
+            if ((long) firstPageNo + count > Tablespace.MAX_PAGES_PER_FILE) {
+                throw new IOException("Data file " + fileId + " is full");
+            }
+            int end = firstPageNo + count;
+            if (end > reservedPages) {
+                //headerless files have nowhere to record a reservation and grow page by page
+                int reserve = dataOffset == 0 ? end : (int) Math.min(
+                        roundToExtent(end), Tablespace.MAX_PAGES_PER_FILE);
+                if (reserve > filePages) {
+                    extendFile(reserve);
+                }
+                if (dataOffset > 0) {
+                    writeAllocatedPages(reserve);
+                }
+                reservedPages = reserve;
+            }
+            allocatedPages = end;
+            return Tablespace.pageId(fileId, firstPageNo);
+        } finally {
+            allocationLock.unlock();
         }
     }
     
+    private static long roundToExtent(long pages) {
+        return (pages + EXTENT_PAGES - 1) / EXTENT_PAGES * EXTENT_PAGES;
+    }
+    
     /**
-     * Get the total number of pages.
+     * Grow the file to hold at least requiredPages, writing zeros so the space
+     * is really allocated. Files with a header grow by at least GROWTH_EXTENTS
+     * extents at a time.
      */
-    public int getNumPages() throws IOException {
-        synchronized (channel) {
-            return (int) (channel.size() / Page.PAGE_SIZE);
+    private void extendFile(int requiredPages) throws IOException {
+        long target = requiredPages;
+        if (dataOffset > 0) {
+            target = Math.max(target, roundToExtent(filePages) + (long) GROWTH_EXTENTS * EXTENT_PAGES);
+            target = Math.min(target, Tablespace.MAX_PAGES_PER_FILE);
+        }
+        
+        ByteBuffer zeros = ByteBuffer.wrap(Page.ZERO_PAGE).asReadOnlyBuffer();
+        long position = dataOffset + filePages * pageSize;
+        long end = dataOffset + target * pageSize;
+        while (position < end) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), end - position));
+            position += channel.write(zeros, position);
+        }
+        filePages = target;
+        fileExtended();
+    }
+    
+    /**
+     * Called after the file has grown.
+     */
+    void fileExtended() throws IOException {
+    }
+    
+    /**
+     * Record the allocated page count in the header. Like page writes, it is
+     * forced by the next sync.
+     */
+    private void writeAllocatedPages(int pages) throws IOException {
+        ByteBuffer fields = ByteBuffer.allocate(HEADER_FIELDS_SIZE - HEADER_VERSION_OFFSET);
+        fields.putInt(FORMAT_VERSION).putInt(pageSize).putInt(pages).flip();
+        while (fields.hasRemaining()) {
+            channel.write(fields, HEADER_VERSION_OFFSET + fields.position());
+        }
+        unsynced.set(true);
+    }
+    
+    /**
+     * Get the number of allocated pages.
+     */
+    public int getNumPages() {
+        allocationLock.lock();
+        try {
+            return allocatedPages;
+        } finally {
+            allocationLock.unlock();
         }
     }
     
@@ -86,6 +402,15 @@ public class DiskManager {
      * Close the disk manager and release resources.
      */
     public void close() throws IOException {
+        allocationLock.lock();
+        try {
+            if (channel.isOpen() && dataOffset > 0 && reservedPages != allocatedPages) {
+                //give back the unused part of the current extent
+                writeAllocatedPages(allocatedPages);
+            }
+        } finally {
+            allocationLock.unlock();
+        }
         channel.close();
         file.close();
     }
@@ -94,8 +419,6 @@ public class DiskManager {
      * Flush all changes to disk.
      */
     public void flush() throws IOException {
-        synchronized (channel) {
-            channel.force(true);
-        }
+        channel.force(true);
     }
 }
@@ -0,0 +1,14 @@
+package com.dbengine.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A copy of a row's on-page bytes, kept by a tuple so that columns a scan
+ * did not ask for can still be decoded when they are read.
+ */
+record EncodedRow(byte[] bytes, RowFormat format, OverflowStore overflowStore) {
+    
+    Object decode(int column) {
+        return format.decodeColumn(ByteBuffer.wrap(bytes), 0, column, overflowStore);
+    }
+}
@@ -0,0 +1,80 @@
+package com.dbengine.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pages a table no longer uses, kept for its later allocations. The list is
+ * chained through the free pages themselves and its head is stored in the
+ * table header page, so it needs no pages of its own. A page taken from the
+ * list must still be marked free; if a crash left the head pointing at a page
+ * that was reused, the rest of the list is abandoned rather than handing that
+ * page out twice.
+ *
+ * Free page layout: page type (1 byte), next free page ID (4 bytes)
+ */
+class FreePageList {
+    private static final int NEXT_PAGE_OFFSET = 1;
+    static final int NO_PAGE = -1;
+    
+    private final BufferPool bufferPool;
+    private final int fileId;
+    private final int headerPageId;
+    private final int headOffset;
+    private int head;
+    
+    /**
+     * Open the list whose head is stored at headOffset in the given header page.
+     */
+    FreePageList(BufferPool bufferPool, int fileId, int headerPageId, int headOffset) throws IOException {
+        this.bufferPool = bufferPool;
+        this.fileId = fileId;
+        this.headerPageId = headerPageId;
+        this.headOffset = headOffset;
+        
+        Page header = bufferPool.fetchPage(headerPageId);
+        int stored = header.getBuffer().getInt(headOffset);
+        bufferPool.unpinPage(headerPageId, false);
+        //tables created before the list existed have 0 here; page 0 is never freed
+        this.head = stored > 0 ? stored : NO_PAGE;
+    }
+    
+    /**
+     * Take a free page, or allocate a new one in the table's data file if the
+     * list is empty. The page is returned pinned and zeroed.
+     */
+    synchronized Page newPage(BufferAccessStrategy strategy) throws IOException {
+        if (head != NO_PAGE) {
+            int pageId = head;
+            Page page = bufferPool.fetchPage(pageId, strategy);
+            ByteBuffer buffer = page.getBuffer();
+            if (buffer.get(0) == PageType.FREE_PAGE.getId()) {
+                setHead(buffer.getInt(NEXT_PAGE_OFFSET));
+                page.clear();
+                return page;
+            }
+            bufferPool.unpinPage(pageId, false);
+            setHead(NO_PAGE);
+        }
+        return bufferPool.newPage(fileId, strategy);
+    }
+    
+    /**
+     * Add a page the table no longer references to the list.
+     */
+    synchronized void free(int pageId) throws IOException {
+        Page page = bufferPool.fetchPage(pageId);
+        ByteBuffer buffer = page.getBuffer();
+        buffer.put(0, PageType.FREE_PAGE.getId());
+        buffer.putInt(NEXT_PAGE_OFFSET, head);
+        bufferPool.unpinPage(pageId, true);
+        setHead(pageId);
+    }
+    
+    private void setHead(int pageId) throws IOException {
+        Page header = bufferPool.fetchPage(headerPageId);
+        header.getBuffer().putInt(headOffset, pageId);
+        bufferPool.unpinPage(headerPageId, true);
+        head = pageId;
+    }
+}
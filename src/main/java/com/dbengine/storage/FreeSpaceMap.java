@@ -0,0 +1,203 @@
+package com.dbengine.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent free-space map for one table heap.
+ * Each heap page is recorded with a bucket that rounds its free bytes down to
+ * a multiple of pageSize / NUM_BUCKETS. Entries live in a chain of FREE_LIST
+ * pages and are mirrored in memory by per-bucket page sets, so finding a page
+ * with enough room checks at most NUM_BUCKETS sets. An FSM page is only
+ * written when a heap page moves to a different bucket.
+ *
+ * FSM page layout:
+ * - Header: page type (1 byte), next FSM page ID (4 bytes), entry count (4 bytes)
+ * - Entries: heap page ID (4 bytes), bucket (1 byte)
+ */
+public class FreeSpaceMap {
+    static final int NUM_BUCKETS = 32;
+    
+    private static final int NEXT_PAGE_OFFSET = 1;
+    private static final int ENTRY_COUNT_OFFSET = 5;
+    private static final int HEADER_SIZE = 9;  // 1 + 4 + 4
+    private static final int ENTRY_SIZE = 5;   // 4 + 1
+    private static final int NO_PAGE = -1;
+    
+    private final BufferPool bufferPool;
+    private final int fileId;  //data file that new FSM pages are added to
+    private final int bucketWidth;
+    private final int entriesPerPage;
+    private final List<Integer> fsmPageIds;
+    private final List<Integer> heapPageIds;        //entry number -> heap page ID
+    private final Map<Integer, Integer> entryOf;    //heap page ID -> entry number
+    private final List<Byte> buckets;               //entry number -> bucket
+    private final List<Set<Integer>> pagesByBucket;
+    
+    /**
+     * Create an empty free-space map.
+     */
+    public FreeSpaceMap(BufferPool bufferPool) throws IOException {
+        this(bufferPool, Tablespace.MAIN_FILE, NO_PAGE);
+    }
+    
+    /**
+     * Open the free-space map whose first FSM page is rootPageId, or create an
+     * empty one in the main data file if rootPageId is negative.
+     */
+    public FreeSpaceMap(BufferPool bufferPool, int rootPageId) throws IOException {
+        this(bufferPool, rootPageId < 0 ? Tablespace.MAIN_FILE : Tablespace.fileId(rootPageId), rootPageId);
+    }
+    
+    /**
+     * Open the free-space map whose first FSM page is rootPageId, or create an
+     * empty one in the given data file if rootPageId is negative.
+     */
+    public FreeSpaceMap(BufferPool bufferPool, int fileId, int rootPageId) throws IOException {
+        this.bufferPool = bufferPool;
+        this.fileId = fileId;
+        this.bucketWidth = bufferPool.getPageSize() / NUM_BUCKETS;
+        this.entriesPerPage = (bufferPool.getPageSize() - HEADER_SIZE) / ENTRY_SIZE;
+        this.fsmPageIds = new ArrayList<>();
+        this.heapPageIds = new ArrayList<>();
+        this.entryOf = new HashMap<>();
+        this.buckets = new ArrayList<>();
+        this.pagesByBucket = new ArrayList<>(NUM_BUCKETS);
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            pagesByBucket.add(new LinkedHashSet<>());
+        }
+        
+        if (rootPageId < 0) {
+            appendFsmPage();
+        } else {
+            load(rootPageId);
+        }
+    }
+    
+    private void load(int rootPageId) throws IOException {
+        int fsmPageId = rootPageId;
+        while (fsmPageId != NO_PAGE) {
+            fsmPageIds.add(fsmPageId);
+            Page page = bufferPool.fetchPage(fsmPageId);
+            ByteBuffer buffer = page.getBuffer();
+            int count = buffer.getInt(ENTRY_COUNT_OFFSET);
+            for (int i = 0; i < count; i++) {
+                int position = HEADER_SIZE + i * ENTRY_SIZE;
+                track(buffer.getInt(position), buffer.get(position + 4));
+            }
+            int next = buffer.getInt(NEXT_PAGE_OFFSET);
+            bufferPool.unpinPage(fsmPageId, false);
+            fsmPageId = next;
+        }
+    }
+    
+    private void track(int heapPageId, byte bucket) {
+        int entry = heapPageIds.size();
+        heapPageIds.add(heapPageId);
+        buckets.add(bucket);
+        entryOf.put(heapPageId, entry);
+        pagesByBucket.get(bucket).add(heapPageId);
+    }
+    
+    private void appendFsmPage() throws IOException {
+        Page page = bufferPool.newPage(fileId, null);
+        int pageId = page.getPageId();
+        ByteBuffer buffer = page.getBuffer();
+        buffer.put(0, PageType.FREE_LIST.getId());
+        buffer.putInt(NEXT_PAGE_OFFSET, NO_PAGE);
+        buffer.putInt(ENTRY_COUNT_OFFSET, 0);
+        bufferPool.unpinPage(pageId, true);
+        
+        if (!fsmPageIds.isEmpty()) {
+            int lastPageId = fsmPageIds.get(fsmPageIds.size() - 1);
+            Page last = bufferPool.fetchPage(lastPageId);
+            last.getBuffer().putInt(NEXT_PAGE_OFFSET, pageId);
+            bufferPool.unpinPage(lastPageId, true);
+        }
+        fsmPageIds.add(pageId);
+    }
+    
+    /**
+     * Record a heap page that was just added to the table.
+     */
+    public void addPage(int heapPageId, int freeBytes) throws IOException {
+        int entry = heapPageIds.size();
+        if (entry == fsmPageIds.size() * entriesPerPage) {
+            appendFsmPage();
+        }
+        byte bucket = bucketFor(freeBytes);
+        track(heapPageId, bucket);
+        
+        int fsmPageId = fsmPageIds.get(entry / entriesPerPage);
+        int position = HEADER_SIZE + (entry % entriesPerPage) * ENTRY_SIZE;
+        Page page = bufferPool.fetchPage(fsmPageId);
+        ByteBuffer buffer = page.getBuffer();
+        buffer.putInt(position, heapPageId);
+        buffer.put(position + 4, bucket);
+        buffer.putInt(ENTRY_COUNT_OFFSET, entry % entriesPerPage + 1);
+        bufferPool.unpinPage(fsmPageId, true);
+    }
+    
+    /**
+     * Record the current free space of a heap page. Only writes the FSM page
+     * if the page moved to a different bucket.
+     */
+    public void update(int heapPageId, int freeBytes) throws IOException {
+        Integer entry = entryOf.get(heapPageId);
+        if (entry == null) {
+            throw new IllegalArgumentException("Page " + heapPageId + " is not in the free-space map");
+        }
+        byte bucket = bucketFor(freeBytes);
+        byte old = buckets.get(entry);
+        if (bucket == old) {
+            return;
+        }
+        
+        pagesByBucket.get(old).remove(heapPageId);
+        pagesByBucket.get(bucket).add(heapPageId);
+        buckets.set(entry, bucket);
+        
+        int fsmPageId = fsmPageIds.get(entry / entriesPerPage);
+        Page page = bufferPool.fetchPage(fsmPageId);
+        page.getBuffer().put(HEADER_SIZE + (entry % entriesPerPage) * ENTRY_SIZE + 4, bucket);
+        bufferPool.unpinPage(fsmPageId, true);
+    }
+    
+    /**
+     * Find a heap page with at least the given number of free bytes.
+     * Returns -1 if no page is known to have that much room.
+     */
+    public int findPage(int requiredBytes) {
+        //round up so every page in the starting bucket is guaranteed to fit
+        int first = (requiredBytes + bucketWidth - 1) / bucketWidth;
+        for (int bucket = first; bucket < NUM_BUCKETS; bucket++) {
+            Iterator<Integer> pages = pagesByBucket.get(bucket).iterator();
+            if (pages.hasNext()) {
+                return pages.next();
+            }
+        }
+        return -1;
+    }
+    
+    private byte bucketFor(int freeBytes) {
+        return (byte) Math.min(NUM_BUCKETS - 1, Math.max(0, freeBytes) / bucketWidth);
+    }
+    
+    /**
+     * Heap pages in the order they were added to the table.
+     */
+    public List<Integer> getHeapPageIds() {
+        return new ArrayList<>(heapPageIds);
+    }
+    
+    public int getRootPageId() {
+        return fsmPageIds.get(0);
+    }
+}
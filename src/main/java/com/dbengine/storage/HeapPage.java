@@ -1,303 +1,415 @@
 package com.dbengine.storage;
 
-import com.dbengine.semantic.DataType;
 import com.dbengine.semantic.Schema;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Heap page that stores tuples in a slotted page format.
  * Layout:
- * - Header: page type (1 byte), tuple count (4 bytes), free space pointer (4 bytes)
+ * - Header: page type (1 byte), tuple count (4 bytes), free space pointer (4 bytes),
+ *   fragmented bytes (4 bytes), deleted slot count (4 bytes)
  * - Slot array: grows from start, each slot is (offset: 4 bytes, length: 4 bytes)
  * - Tuples: grow from end towards start
+ * All reads and writes go straight to the page frame; nothing is copied per call.
+ *
+ * Deleting or resizing a tuple leaves its old bytes behind as fragmented space.
+ * When an insert or update does not fit in the contiguous free space but would
+ * fit after reclaiming that space, the page is compacted first. Deleted slot
+ * entries are reused by later inserts.
+ *
+ * A tuple that outgrows its page is moved to another page. Its original slot
+ * becomes a redirect that stores the new location in place of (offset, length),
+ * and the moved copy is flagged so that scans skip it and reach it only through
+ * the redirect. Redirects are never chained: moving a tuple again rewrites the
+ * original redirect.
+ *
+ * Tuple bytes are encoded by the table's RowFormat.
  */
 public class HeapPage {
-    private static final int HEADER_SIZE = 9;  // 1 + 4 + 4
-    private static final int SLOT_SIZE = 8;    // 4 + 4
+    private static final int HEADER_SIZE = 17;  // 1 + 4 + 4 + 4 + 4
+    static final int SLOT_SIZE = 8;             // 4 + 4
+    
+    private static final int TUPLE_COUNT_OFFSET = 1;
+    private static final int FREE_SPACE_PTR_OFFSET = 5;
+    private static final int FRAGMENTED_BYTES_OFFSET = 9;
+    private static final int DELETED_SLOTS_OFFSET = 13;
+    private static final int DELETED = -1;  //offset of a deleted slot
+    private static final int REDIRECT = 0x40000000;  //length flag: slot holds (target page, target slot)
+    private static final int MOVED = 0x20000000;     //length flag: tuple was moved here from another page
+    private static final int LENGTH_MASK = 0x0FFFFFFF;
     
     private final Page page;
-    private final Schema schema;
+    private final RowFormat format;
+    private final ByteBuffer buffer;  //shared view of the page frame, accessed with absolute get/put only
+    private final OverflowStore overflowStore;  //null if values are never stored out of line
     
     public HeapPage(Page page, Schema schema) {
+        this(page, new RowFormat(schema), null);
+    }
+    
+    HeapPage(Page page, RowFormat format, OverflowStore overflowStore) {
         this.page = page;
-        this.schema = schema;
+        this.format = format;
+        this.buffer = page.getBuffer();
+        this.overflowStore = overflowStore;
         
         //initialize if this is a new page
-        ByteBuffer buffer = page.getData();
         if (buffer.get(0) == 0) {
             initializePage();
         }
     }
     
     private void initializePage() {
-        byte[] data = new byte[Page.PAGE_SIZE];
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        
-        buffer.put(PageType.HEAP_PAGE.getId());
-        buffer.putInt(0);  //tuple count
-        buffer.putInt(Page.PAGE_SIZE);  //free space pointer
-        
-        page.setData(data);
+        buffer.put(0, PageType.HEAP_PAGE.getId());
+        buffer.putInt(TUPLE_COUNT_OFFSET, 0);
+        buffer.putInt(FREE_SPACE_PTR_OFFSET, page.getSize());
+        buffer.putInt(FRAGMENTED_BYTES_OFFSET, 0);
+        buffer.putInt(DELETED_SLOTS_OFFSET, 0);
+        page.setDirty(true);
     }
     
     /**
-     * Insert a tuple into the page.
+     * Insert a tuple into the page, reusing a deleted slot if there is one.
      * Returns the slot number, or -1 if page is full.
      */
     public int insertTuple(Tuple tuple) {
-        byte[] tupleData = serializeTuple(tuple);
-        
-        ByteBuffer buffer = ByteBuffer.wrap(page.getBytes());
-        buffer.position(1);
-        int tupleCount = buffer.getInt();
-        int freeSpacePtr = buffer.getInt();
-        
-        int requiredSpace = SLOT_SIZE + tupleData.length;
-        int availableSpace = freeSpacePtr - (HEADER_SIZE + tupleCount * SLOT_SIZE);
+        return insert(format.encode(tuple.rawValues()), 0);
+    }
+    
+    /**
+     * Insert a tuple that is being moved here from another page. It is only
+     * reachable through the redirect left in its original slot.
+     */
+    public int insertMovedTuple(Tuple tuple) {
+        return insert(format.encode(tuple.rawValues()), MOVED);
+    }
+    
+    private int insert(byte[] tupleData, int flags) {
+        int tupleCount = buffer.getInt(TUPLE_COUNT_OFFSET);
+        int deletedSlots = buffer.getInt(DELETED_SLOTS_OFFSET);
         
-        if (availableSpace < requiredSpace) {
+        int requiredSpace = tupleData.length + (deletedSlots > 0 ? 0 : SLOT_SIZE);
+        if (!ensureContiguousSpace(requiredSpace)) {
             return -1;  //page is full
         }
         
-        //update free space pointer
-        freeSpacePtr -= tupleData.length;
+        int slotNum = deletedSlots > 0 ? findDeletedSlot(tupleCount) : tupleCount;
         
         //write tuple data
-        byte[] pageData = page.getBytes();
-        System.arraycopy(tupleData, 0, pageData, freeSpacePtr, tupleData.length);
+        int freeSpacePtr = buffer.getInt(FREE_SPACE_PTR_OFFSET) - tupleData.length;
+        buffer.put(freeSpacePtr, tupleData);
         
         //write slot entry
-        ByteBuffer newBuffer = ByteBuffer.wrap(pageData);
-        newBuffer.position(HEADER_SIZE + tupleCount * SLOT_SIZE);
-        newBuffer.putInt(freeSpacePtr);
-        newBuffer.putInt(tupleData.length);
+        int slotOffset = HEADER_SIZE + slotNum * SLOT_SIZE;
+        buffer.putInt(slotOffset, freeSpacePtr);
+        buffer.putInt(slotOffset + 4, tupleData.length | flags);
         
         //update header
-        newBuffer.position(1);
-        newBuffer.putInt(tupleCount + 1);
-        newBuffer.putInt(freeSpacePtr);
+        if (slotNum == tupleCount) {
+            buffer.putInt(TUPLE_COUNT_OFFSET, tupleCount + 1);
+        } else {
+            buffer.putInt(DELETED_SLOTS_OFFSET, deletedSlots - 1);
+        }
+        buffer.putInt(FREE_SPACE_PTR_OFFSET, freeSpacePtr);
+        
+        page.setDirty(true);
         
-        page.setData(pageData);
+        return slotNum;
+    }
+    
+    private int findDeletedSlot(int tupleCount) {
+        for (int slotNum = 0; slotNum < tupleCount; slotNum++) {
+            if (buffer.getInt(HEADER_SIZE + slotNum * SLOT_SIZE) == DELETED) {
+                return slotNum;
+            }
+        }
+        throw new IllegalStateException("Deleted slot count is set but no slot is deleted on page " + page.getPageId());
+    }
+    
+    /**
+     * Make sure the gap between the slot array and the tuple data has at least
+     * the given number of bytes, compacting the page if that would be enough.
+     */
+    private boolean ensureContiguousSpace(int bytes) {
+        int contiguous = getContiguousFreeSpace();
+        if (contiguous >= bytes) {
+            return true;
+        }
+        if (contiguous + buffer.getInt(FRAGMENTED_BYTES_OFFSET) < bytes) {
+            return false;
+        }
+        compact();
+        return true;
+    }
+    
+    /**
+     * Slide all live tuples to the end of the page so that fragmented space
+     * becomes part of the contiguous free space. Slot numbers do not change.
+     */
+    public void compact() {
+        int tupleCount = buffer.getInt(TUPLE_COUNT_OFFSET);
+        int pageSize = page.getSize();
+        byte[] scratch = new byte[pageSize];
+        
+        int freeSpacePtr = pageSize;
+        for (int slotNum = 0; slotNum < tupleCount; slotNum++) {
+            int slotOffset = HEADER_SIZE + slotNum * SLOT_SIZE;
+            int offset = buffer.getInt(slotOffset);
+            int length = buffer.getInt(slotOffset + 4);
+            if (offset == DELETED || (length & REDIRECT) != 0) {
+                continue;
+            }
+            length &= LENGTH_MASK;
+            freeSpacePtr -= length;
+            buffer.get(offset, scratch, freeSpacePtr, length);
+            buffer.putInt(slotOffset, freeSpacePtr);
+        }
         
-        return tupleCount;
+        buffer.put(freeSpacePtr, scratch, freeSpacePtr, pageSize - freeSpacePtr);
+        buffer.putInt(FREE_SPACE_PTR_OFFSET, freeSpacePtr);
+        buffer.putInt(FRAGMENTED_BYTES_OFFSET, 0);
+        page.setDirty(true);
     }
     
     /**
      * Get a tuple from a specific slot.
      */
     public Tuple getTuple(int slotNum) {
-        ByteBuffer buffer = ByteBuffer.wrap(page.getBytes());
-        buffer.position(1);
-        int tupleCount = buffer.getInt();
+        int tupleCount = buffer.getInt(TUPLE_COUNT_OFFSET);
         
         if (slotNum >= tupleCount) {
             return null;
         }
         
-        buffer.position(HEADER_SIZE + slotNum * SLOT_SIZE);
-        int offset = buffer.getInt();
-        int length = buffer.getInt();
-        
-        if (offset == -1) {
-            return null;  //slot is deleted
+        return readSlot(slotNum);
+    }
+    
+    /**
+     * Get one column of the tuple in a slot without decoding the others.
+     * Returns null if the value is null or the slot holds no tuple.
+     */
+    public Object getValue(int slotNum, int column) {
+        if (slotNum >= buffer.getInt(TUPLE_COUNT_OFFSET)) {
+            return null;
         }
-        
-        byte[] tupleData = new byte[length];
-        buffer.position(offset);
-        buffer.get(tupleData);
-        
-        return deserializeTuple(tupleData);
+        int slotOffset = HEADER_SIZE + slotNum * SLOT_SIZE;
+        int offset = buffer.getInt(slotOffset);
+        if (offset == DELETED || (buffer.getInt(slotOffset + 4) & REDIRECT) != 0) {
+            return null;
+        }
+        return format.decodeColumn(buffer, offset, column, overflowStore);
     }
     
     /**
-     * Get all tuples in the page.
+     * Get all tuples whose home is this page. Tuples moved here from other
+     * pages are skipped, and tuples moved away are left to the caller to
+     * follow through getRedirectSlots.
      */
     public List<Tuple> getAllTuples() {
-        List<Tuple> tuples = new ArrayList<>();
-        ByteBuffer buffer = ByteBuffer.wrap(page.getBytes());
-        buffer.position(1);
-        int tupleCount = buffer.getInt();
+        return getAllTuples(null);
+    }
+    
+    /**
+     * Get all tuples whose home is this page, decoding only the selected
+     * columns (all if selected is null). Each tuple keeps a copy of its row
+     * so the remaining columns can be decoded if they are read after all.
+     */
+    List<Tuple> getAllTuples(boolean[] selected) {
+        int tupleCount = buffer.getInt(TUPLE_COUNT_OFFSET);
+        List<Tuple> tuples = new ArrayList<>(tupleCount);
         
         for (int i = 0; i < tupleCount; i++) {
-            Tuple tuple = getTuple(i);
-            if (tuple != null) {
-                tuple.setRecordId(new RecordId(page.getPageId(), i));
-                tuples.add(tuple);
+            int slotOffset = HEADER_SIZE + i * SLOT_SIZE;
+            int offset = buffer.getInt(slotOffset);
+            int length = buffer.getInt(slotOffset + 4);
+            if (offset == DELETED || (length & (REDIRECT | MOVED)) != 0) {
+                continue;
+            }
+            Tuple tuple;
+            if (selected != null && format.isCompactRow(buffer, offset)) {
+                byte[] row = new byte[length & LENGTH_MASK];
+                buffer.get(offset, row);
+                tuple = new Tuple(format.decode(buffer, offset, selected, overflowStore),
+                        format.getLayout(), new EncodedRow(row, format, overflowStore));
+            } else {
+                tuple = deserializeTuple(offset);
             }
+            tuple.setRecordId(new RecordId(page.getPageId(), i));
+            tuples.add(tuple);
         }
         
         return tuples;
     }
     
+    private Tuple readSlot(int slotNum) {
+        int slotOffset = HEADER_SIZE + slotNum * SLOT_SIZE;
+        int offset = buffer.getInt(slotOffset);
+        
+        if (offset == DELETED) {
+            return null;  //slot is deleted
+        }
+        if ((buffer.getInt(slotOffset + 4) & REDIRECT) != 0) {
+            return null;  //tuple lives on another page
+        }
+        
+        return deserializeTuple(offset);
+    }
+    
+    /**
+     * Get the location a slot redirects to, or null if it is not a redirect.
+     */
+    public RecordId getRedirect(int slotNum) {
+        if (slotNum >= buffer.getInt(TUPLE_COUNT_OFFSET)) {
+            return null;
+        }
+        int slotOffset = HEADER_SIZE + slotNum * SLOT_SIZE;
+        int length = buffer.getInt(slotOffset + 4);
+        if (buffer.getInt(slotOffset) == DELETED || (length & REDIRECT) == 0) {
+            return null;
+        }
+        return new RecordId(buffer.getInt(slotOffset), length & LENGTH_MASK);
+    }
+    
     /**
-     * Delete a tuple at a specific slot.
+     * Turn a slot into a redirect to the given location. If the slot still
+     * holds a tuple, its bytes become fragmented space.
+     */
+    public void setRedirect(int slotNum, RecordId target) {
+        int slotOffset = HEADER_SIZE + slotNum * SLOT_SIZE;
+        int length = buffer.getInt(slotOffset + 4);
+        if ((length & REDIRECT) == 0) {
+            addFragmentedBytes(length & LENGTH_MASK);
+        }
+        buffer.putInt(slotOffset, target.pageId());
+        buffer.putInt(slotOffset + 4, target.slotNum() | REDIRECT);
+        page.setDirty(true);
+    }
+    
+    /**
+     * Slots whose tuples have been moved to other pages.
+     */
+    public List<Integer> getRedirectSlots() {
+        int tupleCount = buffer.getInt(TUPLE_COUNT_OFFSET);
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < tupleCount; i++) {
+            int slotOffset = HEADER_SIZE + i * SLOT_SIZE;
+            if (buffer.getInt(slotOffset) != DELETED && (buffer.getInt(slotOffset + 4) & REDIRECT) != 0) {
+                slots.add(i);
+            }
+        }
+        return slots;
+    }
+    
+    /**
+     * Delete a tuple at a specific slot. Its bytes become fragmented space and
+     * the slot entry is reused by a later insert.
      */
     public void deleteTuple(int slotNum) {
-        byte[] pageData = page.getBytes();
-        ByteBuffer buffer = ByteBuffer.wrap(pageData);
+        if (slotNum >= buffer.getInt(TUPLE_COUNT_OFFSET)) {
+            return;
+        }
+        int slotOffset = HEADER_SIZE + slotNum * SLOT_SIZE;
+        if (buffer.getInt(slotOffset) == DELETED) {
+            return;
+        }
         
-        buffer.position(HEADER_SIZE + slotNum * SLOT_SIZE);
-        buffer.putInt(-1);  //mark as deleted
-        buffer.putInt(0);
+        int length = buffer.getInt(slotOffset + 4);
+        if ((length & REDIRECT) == 0) {
+            addFragmentedBytes(length & LENGTH_MASK);
+        }
+        buffer.putInt(slotOffset, DELETED);  //mark as deleted
+        buffer.putInt(slotOffset + 4, 0);
+        buffer.putInt(DELETED_SLOTS_OFFSET, buffer.getInt(DELETED_SLOTS_OFFSET) + 1);
         
-        page.setData(pageData);
+        page.setDirty(true);
     }
     
     /**
-     * Update a tuple at a specific slot.
+     * Update a tuple at a specific slot. A tuple that does not grow is rewritten
+     * in place; a larger one is moved within the page, compacting it if needed.
+     * Returns false if the page cannot hold the new version.
      */
     public boolean updateTuple(int slotNum, Tuple tuple) {
-        byte[] tupleData = serializeTuple(tuple);
-        byte[] pageData = page.getBytes();
-        ByteBuffer buffer = ByteBuffer.wrap(pageData);
+        byte[] tupleData = format.encode(tuple.rawValues());
         
-        buffer.position(1);
-        int tupleCount = buffer.getInt();
+        int tupleCount = buffer.getInt(TUPLE_COUNT_OFFSET);
         
         if (slotNum >= tupleCount) {
             return false;
         }
         
         //get old tuple info
-        buffer.position(HEADER_SIZE + slotNum * SLOT_SIZE);
-        int oldOffset = buffer.getInt();
-        int oldLength = buffer.getInt();
+        int slotOffset = HEADER_SIZE + slotNum * SLOT_SIZE;
+        int oldOffset = buffer.getInt(slotOffset);
+        int flags = buffer.getInt(slotOffset + 4) & ~LENGTH_MASK;
+        int oldLength = buffer.getInt(slotOffset + 4) & LENGTH_MASK;
         
-        if (oldOffset == -1) {
-            return false;  //slot is deleted
+        if (oldOffset == DELETED || (flags & REDIRECT) != 0) {
+            return false;  //slot is deleted or the tuple lives on another page
         }
         
-        //if same size, update in place
-        if (tupleData.length == oldLength) {
-            System.arraycopy(tupleData, 0, pageData, oldOffset, tupleData.length);
-            page.setData(pageData);
+        //not growing: update in place, leaving any tail as fragmented space
+        if (tupleData.length <= oldLength) {
+            buffer.put(oldOffset, tupleData);
+            buffer.putInt(slotOffset + 4, tupleData.length | flags);
+            addFragmentedBytes(oldLength - tupleData.length);
+            page.setDirty(true);
             return true;
         }
         
-        //different size: need to allocate new space
-        buffer.position(5);
-        int freeSpacePtr = buffer.getInt();
+        //growing: the old bytes are reclaimable once the new version is written elsewhere
+        int available = getContiguousFreeSpace() + buffer.getInt(FRAGMENTED_BYTES_OFFSET) + oldLength;
+        if (available < tupleData.length) {
+            return false;
+        }
         
-        int requiredSpace = tupleData.length;
-        if (freeSpacePtr - requiredSpace < HEADER_SIZE + (tupleCount * SLOT_SIZE)) {
-            return false;  
+        //give up the old space first so compaction can reclaim it
+        buffer.putInt(slotOffset, DELETED);
+        addFragmentedBytes(oldLength);
+        if (!ensureContiguousSpace(tupleData.length)) {
+            throw new IllegalStateException("Page " + page.getPageId() + " has no room after compaction");
         }
         
         //write new tuple data
-        int newOffset = freeSpacePtr - tupleData.length;
-        System.arraycopy(tupleData, 0, pageData, newOffset, tupleData.length);
+        int newOffset = buffer.getInt(FREE_SPACE_PTR_OFFSET) - tupleData.length;
+        buffer.put(newOffset, tupleData);
         
         //update slot entry to point to new location
-        buffer.position(HEADER_SIZE + slotNum * SLOT_SIZE);
-        buffer.putInt(newOffset);
-        buffer.putInt(tupleData.length);
+        buffer.putInt(slotOffset, newOffset);
+        buffer.putInt(slotOffset + 4, tupleData.length | flags);
         
         //update free space pointer in header
-        buffer.position(5);
-        buffer.putInt(newOffset);
+        buffer.putInt(FREE_SPACE_PTR_OFFSET, newOffset);
         
-        page.setData(pageData);
+        page.setDirty(true);
         return true;
     }
     
-    private byte[] serializeTuple(Tuple tuple) {
-        //calculate size
-        int size = 0;
-        for (Object value : tuple.getValues()) {
-            size += getValueSize(value);
-        }
-        
-        ByteBuffer buffer = ByteBuffer.allocate(size);
-        
-        for (Object value : tuple.getValues()) {
-            serializeValue(buffer, value);
-        }
-        
-        return buffer.array();
+    private void addFragmentedBytes(int bytes) {
+        buffer.putInt(FRAGMENTED_BYTES_OFFSET, buffer.getInt(FRAGMENTED_BYTES_OFFSET) + bytes);
     }
     
-    private Tuple deserializeTuple(byte[] data) {
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        int numColumns = schema.getColumnCount();
-        Object[] values = new Object[numColumns];
-        
-        List<String> columnNames = new ArrayList<>(schema.getColumnNames());
-        
-        for (int i = 0; i < numColumns; i++) {
-            String columnName = columnNames.get(i);
-            DataType type = schema.getColumnType(columnName).orElseThrow();
-            values[i] = deserializeValue(buffer, type);
-        }
-        
-        return new Tuple(values, createColumnIndexMap(columnNames));
+    private int getContiguousFreeSpace() {
+        int tupleCount = buffer.getInt(TUPLE_COUNT_OFFSET);
+        return buffer.getInt(FREE_SPACE_PTR_OFFSET) - (HEADER_SIZE + tupleCount * SLOT_SIZE);
     }
     
-    private int getValueSize(Object value) {
-        if (value == null) {
-            return 1;  //type byte
-        } else if (value instanceof Integer) {
-            return 1 + 4;  //type + int
-        } else if (value instanceof String) {
-            return 1 + 4 + ((String) value).getBytes(StandardCharsets.UTF_8).length;  //type + length + data
-        } else if (value instanceof Boolean) {
-            return 1 + 1;  //type + boolean
-        }
-        throw new IllegalArgumentException("Unsupported type: " + value.getClass());
+    private Tuple deserializeTuple(int offset) {
+        return new Tuple(format.decode(buffer, offset, overflowStore), format.getLayout());
     }
     
-    private void serializeValue(ByteBuffer buffer, Object value) {
-        if (value == null) {
-            buffer.put((byte) 0);
-        } else if (value instanceof Integer) {
-            buffer.put((byte) 1);
-            buffer.putInt((Integer) value);
-        } else if (value instanceof String) {
-            buffer.put((byte) 2);
-            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
-            buffer.putInt(bytes.length);
-            buffer.put(bytes);
-        } else if (value instanceof Boolean) {
-            buffer.put((byte) 3);
-            buffer.put((byte) (((Boolean) value) ? 1 : 0));
-        } else {
-            throw new IllegalArgumentException("Unsupported type: " + value.getClass());
-        }
-    }
-    
-    private Object deserializeValue(ByteBuffer buffer, DataType type) {
-        byte typeId = buffer.get();
-        
-        if (typeId == 0) {
-            return null;
-        } else if (typeId == 1) {
-            return buffer.getInt();
-        } else if (typeId == 2) {
-            int length = buffer.getInt();
-            byte[] bytes = new byte[length];
-            buffer.get(bytes);
-            return new String(bytes, StandardCharsets.UTF_8);
-        } else if (typeId == 3) {
-            return buffer.get() == 1;
-        }
-        
-        throw new IllegalArgumentException("Unknown type id: " + typeId);
-    }
-    
-    private java.util.Map<String, Integer> createColumnIndexMap(List<String> columnNames) {
-        java.util.Map<String, Integer> map = new java.util.HashMap<>();
-        for (int i = 0; i < columnNames.size(); i++) {
-            map.put(columnNames.get(i), i);
-        }
-        return map;
+    public int getTupleCount() {
+        return buffer.getInt(TUPLE_COUNT_OFFSET);
     }
     
-    public int getTupleCount() {
-        ByteBuffer buffer = ByteBuffer.wrap(page.getBytes());
-        buffer.position(1);
-        return buffer.getInt();
+    /**
+     * Bytes available for new tuples, including their slot entries, counting
+     * fragmented space that compaction would reclaim.
+     */
+    public int getFreeSpace() {
+        return getContiguousFreeSpace() + buffer.getInt(FRAGMENTED_BYTES_OFFSET);
     }
 }
@@ -0,0 +1,88 @@
+package com.dbengine.storage;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).
+ * The victim is the frame whose K-th most recent reference is oldest. Frames
+ * referenced fewer than K times go first, so pages touched once by a large
+ * scan are evicted before pages with a real reuse history.
+ * Resident frames are kept ordered by that key, so choosing a victim walks
+ * the order from the front instead of scanning the whole pool.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+    //accesses this close together count as one (e.g. repeated inserts into one page)
+    private static final long CORRELATED_REFERENCE_PERIOD = 16;
+    
+    private final int k;
+    private final long[][] history;  //per frame, most recent reference first; 0 = none
+    private final boolean[] resident;
+    private final TreeSet<Integer> order;  //resident frame IDs, eviction candidates first
+    private long clock;
+    
+    public LruKPolicy(int poolSize, int k) {
+        this.k = k;
+        this.history = new long[poolSize][k];
+        this.resident = new boolean[poolSize];
+        //by K-th reference time, then most recent reference; frame ID keeps keys unique
+        this.order = new TreeSet<>(Comparator
+                .<Integer>comparingLong(frameId -> history[frameId][k - 1])
+                .thenComparingLong(frameId -> history[frameId][0])
+                .thenComparingInt(frameId -> frameId));
+    }
+    
+    @Override
+    public synchronized void recordLoad(int frameId, int pageId) {
+        if (resident[frameId]) {
+            order.remove(frameId);
+        }
+        resident[frameId] = true;
+        Arrays.fill(history[frameId], 0);
+        history[frameId][0] = ++clock;
+        order.add(frameId);
+    }
+    
+    @Override
+    public synchronized void recordAccess(int frameId) {
+        if (!resident[frameId]) {
+            return;
+        }
+        //the key is about to change, so take the frame out of the order first
+        order.remove(frameId);
+        long now = ++clock;
+        long[] refs = history[frameId];
+        if (now - refs[0] > CORRELATED_REFERENCE_PERIOD) {
+            System.arraycopy(refs, 0, refs, 1, k - 1);
+        }
+        refs[0] = now;
+        order.add(frameId);
+    }
+    
+    @Override
+    public synchronized void recordRemove(int frameId, int pageId) {
+        if (resident[frameId]) {
+            order.remove(frameId);
+        }
+        resident[frameId] = false;
+        Arrays.fill(history[frameId], 0);
+    }
+    
+    @Override
+    public synchronized int selectVictim(int incomingPageId, IntPredicate tryClaim) {
+        //pinned frames are skipped, so each candidate is offered at most once
+        for (int frameId : order) {
+            if (tryClaim.test(frameId)) {
+                return frameId;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public String getName() {
+        return "LRU-" + k;
+    }
+}
@@ -0,0 +1,143 @@
+package com.dbengine.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Disk manager that serves pages from memory-mapped segments of the data file.
+ * The file is mapped in fixed-size segments as it grows: once the file has
+ * been extended past a segment boundary, that segment is mapped and its
+ * pages are read and written with plain memory copies instead of system calls.
+ * Pages in the unmapped tail of the file go through the channel as usual.
+ *
+ * Mappings are released only when garbage collected, so on Windows the data
+ * file cannot be deleted while a MappedDiskManager for it is reachable.
+ */
+public final class MappedDiskManager extends DiskManager {
+    static final long SEGMENT_SIZE = 4L * 1024 * 1024;  //4MB, a multiple of every supported page size
+    
+    private final int pagesPerSegment;
+    private volatile MappedByteBuffer[] segments;  //replaced wholesale when the mapping grows
+    
+    public MappedDiskManager(Path dbFilePath) throws IOException {
+        this(dbFilePath, SyncPolicy.BATCH);
+    }
+    
+    public MappedDiskManager(Path dbFilePath, SyncPolicy syncPolicy) throws IOException {
+        this(dbFilePath, Page.PAGE_SIZE, syncPolicy);
+    }
+    
+    public MappedDiskManager(Path dbFilePath, int pageSize, SyncPolicy syncPolicy) throws IOException {
+        this(dbFilePath, pageSize, syncPolicy, Tablespace.MAIN_FILE);
+    }
+    
+    public MappedDiskManager(Path dbFilePath, int pageSize, SyncPolicy syncPolicy, int fileId) throws IOException {
+        super(dbFilePath, pageSize, syncPolicy, fileId);
+        this.pagesPerSegment = (int) (SEGMENT_SIZE / getPageSize());
+        this.segments = new MappedByteBuffer[0];
+        mapCompleteSegments();
+    }
+    
+    /**
+     * Read a page as a view of the mapping. Writes to the returned page go
+     * straight to the mapped file; writePage or sync only forces them to disk.
+     */
+    @Override
+    public Page readPage(int pageId) throws IOException {
+        MappedByteBuffer segment = segmentFor(pageId);
+        if (segment == null) {
+            return super.readPage(pageId);
+        }
+        ByteBuffer view = segment.slice(offsetInSegment(pageId), getPageSize());
+        return Page.view(pageId, view);
+    }
+    
+    @Override
+    public void readPage(int pageId, Page page) throws IOException {
+        MappedByteBuffer segment = segmentFor(pageId);
+        if (segment == null) {
+            super.readPage(pageId, page);
+            return;
+        }
+        page.getBuffer().put(0, segment, offsetInSegment(pageId), getPageSize());
+        page.setDirty(false);
+    }
+    
+    @Override
+    public void writePage(Page page) throws IOException {
+        int pageId = page.getPageId();
+        MappedByteBuffer segment = segmentFor(pageId);
+        if (segment == null) {
+            super.writePage(page);
+            return;
+        }
+        
+        //a page from readPage(int) is already a view of the mapping; copying it onto itself is harmless
+        int offset = offsetInSegment(pageId);
+        page.setDirty(false);
+        segment.put(offset, page.getBuffer(), 0, getPageSize());
+        if (getSyncPolicy() == SyncPolicy.EVERY_WRITE) {
+            segment.force(offset, getPageSize());
+            if (hasUnsyncedWrites()) {
+                sync();  //header written by allocatePages
+            }
+        } else {
+            afterWrite();
+        }
+    }
+    
+    @Override
+    public void writePages(List<Page> run) throws IOException {
+        //mapped pages are plain copies, so only the channel tail benefits from gathering
+        for (Page page : run) {
+            writePage(page);
+        }
+    }
+    
+    @Override
+    void force() throws IOException {
+        //msync only writes back the dirty parts of each mapping
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        super.force();
+    }
+    
+    @Override
+    void fileExtended() throws IOException {
+        //the file may now cover another whole segment
+        mapCompleteSegments();
+    }
+    
+    private void mapCompleteSegments() throws IOException {
+        FileChannel channel = getChannel();
+        synchronized (this) {
+            int complete = (int) ((channel.size() - getDataOffset()) / SEGMENT_SIZE);
+            MappedByteBuffer[] current = segments;
+            if (complete <= current.length) {
+                return;
+            }
+            
+            MappedByteBuffer[] grown = Arrays.copyOf(current, complete);
+            for (int i = current.length; i < complete; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, getDataOffset() + i * SEGMENT_SIZE, SEGMENT_SIZE);
+            }
+            segments = grown;
+        }
+    }
+    
+    private MappedByteBuffer segmentFor(int pageId) {
+        MappedByteBuffer[] current = segments;
+        int index = Tablespace.pageNo(pageId) / pagesPerSegment;
+        return index < current.length ? current[index] : null;
+    }
+    
+    private int offsetInSegment(int pageId) {
+        return (Tablespace.pageNo(pageId) % pagesPerSegment) * getPageSize();
+    }
+}
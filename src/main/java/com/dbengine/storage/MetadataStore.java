@@ -0,0 +1,238 @@
+package com.dbengine.storage;
+
+import com.dbengine.semantic.CatalogStore;
+import com.dbengine.semantic.DataType;
+import com.dbengine.semantic.Schema;
+import com.dbengine.semantic.TableMetadata;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catalog store kept in METADATA pages of the data file.
+ * A chain of directory pages starting at page 0 maps table names to entry
+ * pages, and each table has one entry page with its heap header page,
+ * columns and indexed columns. Entry handles are entry page IDs. Pages are
+ * flushed as soon as they change, so the catalog survives a crash.
+ *
+ * Directory page layout:
+ * - Header: page type (1 byte), next directory page ID (4 bytes), entry count (4 bytes)
+ * - Entries: name length (2 bytes), UTF-8 name, entry page ID (4 bytes)
+ *
+ * Entry page layout:
+ * - Header: page type (1 byte), heap header page ID (4 bytes)
+ * - Columns: count (2 bytes), then name length (2 bytes), UTF-8 name, type (1 byte)
+ * - Indexes: count (2 bytes), then name length (2 bytes), UTF-8 column name
+ */
+public class MetadataStore implements CatalogStore {
+    public static final int ROOT_PAGE_ID = 0;
+    
+    private static final int NEXT_PAGE_OFFSET = 1;
+    private static final int ENTRY_COUNT_OFFSET = 5;
+    private static final int DIRECTORY_HEADER_SIZE = 9;  // 1 + 4 + 4
+    private static final int HEAP_PAGE_OFFSET = 1;
+    private static final int ENTRY_HEADER_SIZE = 5;      // 1 + 4
+    private static final int NO_PAGE = -1;
+    
+    private final BufferPool bufferPool;
+    private int tailPageId;    //last directory page
+    private int tailOffset;    //end of its entries
+    private int tailCount;
+    
+    /**
+     * Open the catalog rooted at page 0, or create it if the data file is
+     * empty. Fails if page 0 holds something other than a catalog.
+     */
+    public MetadataStore(BufferPool bufferPool, boolean create) throws IOException {
+        this.bufferPool = bufferPool;
+        if (create) {
+            Page root = bufferPool.newPage();
+            int rootPageId = root.getPageId();
+            initDirectoryPage(root.getBuffer());
+            bufferPool.unpinPage(rootPageId, true);
+            if (rootPageId != ROOT_PAGE_ID) {
+                throw new IllegalStateException("Catalog must be the first page of the data file, got page " + rootPageId);
+            }
+            bufferPool.flushPage(rootPageId);
+            this.tailPageId = rootPageId;
+            this.tailOffset = DIRECTORY_HEADER_SIZE;
+            this.tailCount = 0;
+        } else {
+            Page root = bufferPool.fetchPage(ROOT_PAGE_ID);
+            byte type = root.getBuffer().get(0);
+            bufferPool.unpinPage(ROOT_PAGE_ID, false);
+            if (type != PageType.METADATA.getId()) {
+                throw new IOException("Data file has no system catalog on page " + ROOT_PAGE_ID);
+            }
+            //positions the tail; the directory itself is returned by readDirectory
+            walkDirectory(null);
+        }
+    }
+    
+    /**
+     * Whether a data file has pages but was written before the catalog
+     * existed, so page 0 holds table data instead of the catalog root.
+     */
+    public static boolean isPreCatalogFile(DiskManager dataFile) throws IOException {
+        if (dataFile.getNumPages() == 0) {
+            return false;
+        }
+        Page root = dataFile.readPage(ROOT_PAGE_ID);
+        return root.getBuffer().get(0) != PageType.METADATA.getId();
+    }
+    
+    @Override
+    public Map<String, Integer> readDirectory() throws IOException {
+        Map<String, Integer> directory = new HashMap<>();
+        walkDirectory(directory);
+        return directory;
+    }
+    
+    private void walkDirectory(Map<String, Integer> directory) throws IOException {
+        int pageId = ROOT_PAGE_ID;
+        while (pageId != NO_PAGE) {
+            Page page = bufferPool.fetchPage(pageId);
+            ByteBuffer buffer = page.getBuffer().duplicate();
+            int count = buffer.getInt(ENTRY_COUNT_OFFSET);
+            buffer.position(DIRECTORY_HEADER_SIZE);
+            for (int i = 0; i < count; i++) {
+                String name = readString(buffer);
+                int entryPageId = buffer.getInt();
+                if (directory != null) {
+                    directory.put(name, entryPageId);
+                }
+            }
+            int next = buffer.getInt(NEXT_PAGE_OFFSET);
+            bufferPool.unpinPage(pageId, false);
+            
+            tailPageId = pageId;
+            tailOffset = buffer.position();
+            tailCount = count;
+            pageId = next;
+        }
+    }
+    
+    @Override
+    public TableMetadata readTable(int handle) throws IOException {
+        Page page = bufferPool.fetchPage(handle);
+        try {
+            ByteBuffer buffer = page.getBuffer().duplicate();
+            if (buffer.get(0) != PageType.METADATA.getId()) {
+                throw new IOException("Page " + handle + " is not a catalog entry page");
+            }
+            int heapPageId = buffer.getInt(HEAP_PAGE_OFFSET);
+            buffer.position(ENTRY_HEADER_SIZE);
+            
+            String name = readString(buffer);
+            Schema schema = new Schema();
+            int columns = buffer.getShort();
+            for (int i = 0; i < columns; i++) {
+                String column = readString(buffer);
+                schema.addColumn(column, DataType.values()[buffer.get()]);
+            }
+            TableMetadata table = new TableMetadata(name, schema, heapPageId);
+            int indexes = buffer.getShort();
+            for (int i = 0; i < indexes; i++) {
+                table.addIndex(readString(buffer));
+            }
+            return table;
+        } finally {
+            bufferPool.unpinPage(handle, false);
+        }
+    }
+    
+    @Override
+    public synchronized int addTable(TableMetadata table) throws IOException {
+        byte[] name = table.getName().getBytes(StandardCharsets.UTF_8);
+        int entrySize = 2 + name.length + 4;
+        if (DIRECTORY_HEADER_SIZE + entrySize > bufferPool.getPageSize()) {
+            throw new IllegalArgumentException("Table name is too long: " + table.getName());
+        }
+        
+        Page entry = bufferPool.newPage();
+        int entryPageId = entry.getPageId();
+        bufferPool.unpinPage(entryPageId, false);
+        updateTable(entryPageId, table);
+        
+        if (tailOffset + entrySize > bufferPool.getPageSize()) {
+            Page next = bufferPool.newPage();
+            int nextPageId = next.getPageId();
+            initDirectoryPage(next.getBuffer());
+            bufferPool.unpinPage(nextPageId, true);
+            bufferPool.flushPage(nextPageId);
+            
+            Page tail = bufferPool.fetchPage(tailPageId);
+            tail.getBuffer().putInt(NEXT_PAGE_OFFSET, nextPageId);
+            bufferPool.unpinPage(tailPageId, true);
+            bufferPool.flushPage(tailPageId);
+            
+            tailPageId = nextPageId;
+            tailOffset = DIRECTORY_HEADER_SIZE;
+            tailCount = 0;
+        }
+        
+        Page tail = bufferPool.fetchPage(tailPageId);
+        ByteBuffer buffer = tail.getBuffer().duplicate();
+        buffer.position(tailOffset);
+        writeString(buffer, name);
+        buffer.putInt(entryPageId);
+        buffer.putInt(ENTRY_COUNT_OFFSET, tailCount + 1);
+        bufferPool.unpinPage(tailPageId, true);
+        bufferPool.flushPage(tailPageId);
+        
+        tailOffset = buffer.position();
+        tailCount++;
+        return entryPageId;
+    }
+    
+    @Override
+    public synchronized void updateTable(int handle, TableMetadata table) throws IOException {
+        ByteBuffer encoded = ByteBuffer.allocate(bufferPool.getPageSize());
+        try {
+            encoded.put(PageType.METADATA.getId());
+            encoded.putInt(table.getHeapPageId());
+            writeString(encoded, table.getName().getBytes(StandardCharsets.UTF_8));
+            Map<String, DataType> columns = table.getSchema().getColumns();
+            encoded.putShort((short) columns.size());
+            for (Map.Entry<String, DataType> column : columns.entrySet()) {
+                writeString(encoded, column.getKey().getBytes(StandardCharsets.UTF_8));
+                encoded.put((byte) column.getValue().ordinal());
+            }
+            List<String> indexes = new ArrayList<>(table.getIndexedColumns());
+            encoded.putShort((short) indexes.size());
+            for (String column : indexes) {
+                writeString(encoded, column.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (BufferOverflowException e) {
+            throw new IllegalArgumentException("Definition of table " + table.getName() + " does not fit in one page");
+        }
+        
+        Page page = bufferPool.fetchPage(handle);
+        page.getBuffer().put(0, encoded.array());
+        bufferPool.unpinPage(handle, true);
+        bufferPool.flushPage(handle);
+    }
+    
+    private static void initDirectoryPage(ByteBuffer buffer) {
+        buffer.put(0, PageType.METADATA.getId());
+        buffer.putInt(NEXT_PAGE_OFFSET, NO_PAGE);
+        buffer.putInt(ENTRY_COUNT_OFFSET, 0);
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static void writeString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+}
@@ -0,0 +1,226 @@
+package com.dbengine.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Out-of-line storage for large string values.
+ * A value is written to a chain of OVERFLOW pages and the tuple keeps only a
+ * pointer to the first page and the value's length. Chains are never modified
+ * after they are written. Each chain belongs to one stored row and is freed
+ * when the row is deleted or the value is replaced; its pages go to the
+ * table's free-page list, which new chains are allocated from.
+ *
+ * Overflow page layout:
+ * - Header: page type (1 byte), next page ID (4 bytes), chunk length (4 bytes)
+ * - Chunk of the value's UTF-8 bytes
+ */
+class OverflowStore {
+    private static final int NEXT_PAGE_OFFSET = 1;
+    private static final int CHUNK_LENGTH_OFFSET = 5;
+    private static final int HEADER_SIZE = 9;  // 1 + 4 + 4
+    private static final int NO_PAGE = -1;
+    private static final int MIN_OVERFLOW_BYTES = 64;  //smaller strings are not worth a page chain
+    
+    private final BufferPool bufferPool;
+    private final FreePageList freePages;  //source of new chain pages and destination of freed ones
+    private final RowFormat rowFormat;
+    private final int tupleTarget;
+    
+    OverflowStore(BufferPool bufferPool, FreePageList freePages, RowFormat rowFormat) {
+        this.bufferPool = bufferPool;
+        this.freePages = freePages;
+        this.rowFormat = rowFormat;
+        //keep at least two tuples per page
+        this.tupleTarget = bufferPool.getPageSize() / 2;
+    }
+    
+    /**
+     * Return the tuple with every overflow value it does not keep from
+     * previous (the stored row it replaces, or null) read back into a string,
+     * so that the stored row owns all of its chains.
+     */
+    Tuple detach(Tuple tuple, Tuple previous) {
+        Object[] values = tuple.rawValues();
+        Tuple detached = null;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof OverflowValue overflow && !isKept(overflow, previous, i)) {
+                if (detached == null) {
+                    detached = tuple.copy();
+                }
+                detached.setValue(i, overflow.get());
+            }
+        }
+        return detached == null ? tuple : detached;
+    }
+    
+    private boolean isKept(OverflowValue overflow, Tuple previous, int index) {
+        if (overflow.getStore() != this || previous == null) {
+            return false;
+        }
+        Object[] old = previous.rawValues();
+        return index < old.length && old[index] instanceof OverflowValue kept
+                && kept.getStore() == this && kept.getFirstPageId() == overflow.getFirstPageId();
+    }
+    
+    /**
+     * Free the chains of a stored row that its new version (or null if the
+     * row was deleted) no longer uses.
+     */
+    void freeReplaced(Tuple old, Tuple current) throws IOException {
+        Object[] values = old.rawValues();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof OverflowValue overflow && overflow.getStore() == this
+                    && (current == null || !isKept(overflow, current, i))) {
+                free(overflow);
+            }
+        }
+    }
+    
+    /**
+     * Return the pages of a value's chain to the free-page list.
+     */
+    void free(OverflowValue value) throws IOException {
+        int pageId = value.getFirstPageId();
+        while (pageId != NO_PAGE) {
+            Page page = bufferPool.fetchPage(pageId);
+            ByteBuffer buffer = page.getBuffer();
+            byte type = buffer.get(0);
+            int next = buffer.getInt(NEXT_PAGE_OFFSET);
+            bufferPool.unpinPage(pageId, false);
+            if (type != PageType.OVERFLOW.getId()) {
+                throw new IOException("Page " + pageId + " in the overflow chain at page "
+                        + value.getFirstPageId() + " is not an overflow page");
+            }
+            freePages.free(pageId);
+            pageId = next;
+        }
+    }
+    
+    /**
+     * Return the tuple to store for the given one: unchanged if it is small
+     * enough, otherwise a copy whose largest strings have been moved to
+     * overflow pages until it fits the target size.
+     */
+    Tuple externalize(Tuple tuple) throws IOException {
+        return externalize(tuple, null);
+    }
+    
+    /**
+     * Externalize a tuple, adding the IDs of the chain pages it writes to
+     * chainPages (if not null) so they can be written back with writeBack.
+     */
+    Tuple externalize(Tuple tuple, List<Integer> chainPages) throws IOException {
+        int size = rowFormat.requiredSpace(tuple);
+        if (size <= tupleTarget) {
+            return tuple;
+        }
+        
+        Object[] values = tuple.rawValues();
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof String) {
+                candidates.add(i);
+            }
+        }
+        candidates.sort((a, b) -> Integer.compare(((String) values[b]).length(), ((String) values[a]).length()));
+        
+        Tuple stored = tuple.copy();
+        for (int index : candidates) {
+            if (size <= tupleTarget) {
+                break;
+            }
+            byte[] bytes = ((String) values[index]).getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < MIN_OVERFLOW_BYTES) {
+                continue;
+            }
+            OverflowValue pointer = new OverflowValue(this, write(bytes, chainPages), bytes.length);
+            stored.setValue(index, pointer);
+            size = rowFormat.requiredSpace(stored);
+        }
+        return stored;
+    }
+    
+    /**
+     * Write chain pages to the data file and force it. Rows that are written
+     * straight to disk, bypassing the buffer pool, call this first so they
+     * never reach the file ahead of the chains they point at.
+     */
+    void writeBack(List<Integer> chainPages) throws IOException {
+        if (chainPages.isEmpty()) {
+            return;
+        }
+        for (int pageId : chainPages) {
+            bufferPool.writeBack(pageId);
+        }
+        //pages evicted since they were written were written back without a force
+        bufferPool.getTablespace().getFile(Tablespace.fileId(chainPages.get(0))).sync();
+        chainPages.clear();
+    }
+    
+    /**
+     * Write a value to a new chain of overflow pages and return the first
+     * page ID. The IDs of the pages are added to chainPages if it is not null.
+     */
+    int write(byte[] data, List<Integer> chainPages) throws IOException {
+        int chunkCapacity = bufferPool.getPageSize() - HEADER_SIZE;
+        int firstPageId = NO_PAGE;
+        Page previous = null;
+        int position = 0;
+        do {
+            Page page = freePages.newPage(null);
+            int pageId = page.getPageId();
+            if (chainPages != null) {
+                chainPages.add(pageId);
+            }
+            int chunk = Math.min(chunkCapacity, data.length - position);
+            ByteBuffer buffer = page.getBuffer();
+            buffer.put(0, PageType.OVERFLOW.getId());
+            buffer.putInt(NEXT_PAGE_OFFSET, NO_PAGE);
+            buffer.putInt(CHUNK_LENGTH_OFFSET, chunk);
+            buffer.put(HEADER_SIZE, data, position, chunk);
+            position += chunk;
+            
+            if (previous == null) {
+                firstPageId = pageId;
+            } else {
+                previous.getBuffer().putInt(NEXT_PAGE_OFFSET, pageId);
+                bufferPool.unpinPage(previous.getPageId(), true);
+            }
+            previous = page;
+        } while (position < data.length);
+        bufferPool.unpinPage(previous.getPageId(), true);
+        return firstPageId;
+    }
+    
+    /**
+     * Read a value back from its overflow chain.
+     */
+    String read(int firstPageId, int length) throws IOException {
+        byte[] data = new byte[length];
+        int position = 0;
+        int pageId = firstPageId;
+        while (pageId != NO_PAGE && position < length) {
+            Page page = bufferPool.fetchPage(pageId);
+            ByteBuffer buffer = page.getBuffer();
+            if (buffer.get(0) != PageType.OVERFLOW.getId()) {
+                bufferPool.unpinPage(pageId, false);
+                throw new IOException("Page " + pageId + " in the overflow chain at page "
+                        + firstPageId + " is not an overflow page");
+            }
+            int chunk = Math.min(buffer.getInt(CHUNK_LENGTH_OFFSET), length - position);
+            buffer.get(HEADER_SIZE, data, position, chunk);
+            position += chunk;
+            int next = buffer.getInt(NEXT_PAGE_OFFSET);
+            bufferPool.unpinPage(pageId, false);
+            pageId = next;
+        }
+        if (position != length) {
+            throw new IOException("Overflow chain at page " + firstPageId + " is truncated");
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
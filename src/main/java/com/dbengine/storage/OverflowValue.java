@@ -0,0 +1,55 @@
+package com.dbengine.storage;
+
+import java.io.IOException;
+
+/**
+ * A string value stored on overflow pages. The pages are read the first time
+ * the value is needed; Tuple.getValue resolves it transparently, so only
+ * queries that touch the column pay for the read.
+ */
+public final class OverflowValue {
+    private final OverflowStore store;
+    private final int firstPageId;
+    private final int length;
+    private String value;
+    
+    OverflowValue(OverflowStore store, int firstPageId, int length) {
+        this.store = store;
+        this.firstPageId = firstPageId;
+        this.length = length;
+    }
+    
+    public String get() {
+        if (value == null) {
+            if (store == null) {
+                throw new IllegalStateException("Overflow value at page " + firstPageId + " is not attached to a table");
+            }
+            try {
+                value = store.read(firstPageId, length);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read overflow value", e);
+            }
+        }
+        return value;
+    }
+    
+    OverflowStore getStore() {
+        return store;
+    }
+    
+    int getFirstPageId() {
+        return firstPageId;
+    }
+    
+    /**
+     * Length of the value in UTF-8 bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+    
+    @Override
+    public String toString() {
+        return get();
+    }
+}
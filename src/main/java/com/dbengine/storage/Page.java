@@ -1,56 +1,120 @@
 package com.dbengine.storage;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Represents a fixed-size page (4KB) in the database.
- * Pages are the fundamental unit of storage and I/O.
+ * Represents a fixed-size page in the database (4KB unless the database was
+ * created with another page size). Pages are the fundamental unit of storage and I/O.
+ * Inside the buffer pool a Page is a reusable frame: its page ID changes as
+ * different disk pages are loaded into it.
  */
 public class Page {
-    public static final int PAGE_SIZE = 4096;
+    public static final int PAGE_SIZE = 4096;  //default page size
+    public static final int MIN_PAGE_SIZE = 1024;
+    public static final int MAX_PAGE_SIZE = 64 * 1024;
+    static final int INVALID_PAGE_ID = -1;
+    static final byte[] ZERO_PAGE = new byte[MAX_PAGE_SIZE];  //never modified
     
-    private final int pageId;
+    private static final int CLAIMED = -1;  //pin count of a frame that is being evicted
+    
+    private volatile int pageId;
+    private final int frameId;  //slot in the buffer pool, or -1 for standalone pages
     private final ByteBuffer data;
-    private boolean dirty;
-    private int pinCount;
+    private volatile boolean dirty;
+    private final AtomicInteger pinCount;
+    private final ReentrantLock ioLock;  //held while the frame is being filled from disk
+    private final AtomicBoolean prefetched;  //loaded by read-ahead and not referenced yet
     
     public Page(int pageId) {
-        this.pageId = pageId;
-        this.data = ByteBuffer.allocate(PAGE_SIZE);
-        this.dirty = false;
-        this.pinCount = 0;
+        this(pageId, new byte[PAGE_SIZE]);
     }
     
     public Page(int pageId, byte[] pageData) {
         this.pageId = pageId;
+        this.frameId = -1;
         this.data = ByteBuffer.wrap(pageData);
         this.dirty = false;
-        this.pinCount = 0;
+        this.pinCount = new AtomicInteger();
+        this.ioLock = new ReentrantLock();
+        this.prefetched = new AtomicBoolean();
+    }
+    
+    private Page(int pageId, int frameId, ByteBuffer data) {
+        this.pageId = pageId;
+        this.frameId = frameId;
+        this.data = data;
+        this.dirty = false;
+        this.pinCount = new AtomicInteger();
+        this.ioLock = new ReentrantLock();
+        this.prefetched = new AtomicBoolean();
+    }
+    
+    /**
+     * Check that a page size is a power of two between MIN_PAGE_SIZE and MAX_PAGE_SIZE.
+     */
+    public static void checkPageSize(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two between "
+                    + MIN_PAGE_SIZE + " and " + MAX_PAGE_SIZE + " bytes: " + pageSize);
+        }
+    }
+    
+    /**
+     * Create an empty buffer pool frame backed by the given buffer.
+     */
+    static Page frame(int frameId, ByteBuffer frame) {
+        return new Page(INVALID_PAGE_ID, frameId, frame);
+    }
+    
+    /**
+     * Create a standalone page over an existing buffer, without copying it.
+     */
+    static Page view(int pageId, ByteBuffer data) {
+        return new Page(pageId, -1, data);
     }
     
     public int getPageId() {
         return pageId;
     }
     
+    void setPageId(int pageId) {
+        this.pageId = pageId;
+    }
+    
+    int getFrameId() {
+        return frameId;
+    }
+    
+    public int getSize() {
+        return data.capacity();
+    }
+    
     public ByteBuffer getData() {
         return data.asReadOnlyBuffer();
     }
     
+    /**
+     * Get a writable view of the page frame without copying it.
+     * Callers must use absolute get/put and mark the page dirty after writing.
+     */
+    ByteBuffer getBuffer() {
+        return data;
+    }
+    
     public byte[] getBytes() {
-        byte[] bytes = new byte[PAGE_SIZE];
-        data.position(0);
-        data.get(bytes);
-        data.position(0);
+        byte[] bytes = new byte[data.capacity()];
+        data.get(0, bytes);
         return bytes;
     }
     
     public void setData(byte[] newData) {
-        if (newData.length != PAGE_SIZE) {
-            throw new IllegalArgumentException("Page data must be exactly " + PAGE_SIZE + " bytes");
+        if (newData.length != data.capacity()) {
+            throw new IllegalArgumentException("Page data must be exactly " + data.capacity() + " bytes");
         }
-        data.position(0);
-        data.put(newData);
-        data.position(0);
+        data.put(0, newData);
         dirty = true;
     }
     
@@ -63,29 +127,93 @@ public class Page {
     }
     
     public int getPinCount() {
-        return pinCount;
+        return Math.max(pinCount.get(), 0);
     }
     
     public void pin() {
-        pinCount++;
+        pinCount.incrementAndGet();
     }
     
     public void unpin() {
-        if (pinCount > 0) {
-            pinCount--;
-        }
+        int count;
+        do {
+            count = pinCount.get();
+            if (count <= 0) {
+                return;
+            }
+        } while (!pinCount.compareAndSet(count, count - 1));
     }
     
     public boolean isPinned() {
-        return pinCount > 0;
+        return pinCount.get() > 0;
+    }
+    
+    /**
+     * Pin the frame unless it is currently claimed for eviction.
+     */
+    boolean tryPin() {
+        int count;
+        do {
+            count = pinCount.get();
+            if (count == CLAIMED) {
+                return false;
+            }
+        } while (!pinCount.compareAndSet(count, count + 1));
+        return true;
+    }
+    
+    /**
+     * Claim an unpinned frame for eviction. Concurrent tryPin calls fail until
+     * the claim is released.
+     */
+    boolean tryClaim() {
+        return pinCount.compareAndSet(0, CLAIMED);
+    }
+    
+    /**
+     * Release an eviction claim, leaving the frame with the given pin count.
+     */
+    void releaseClaim(int pins) {
+        pinCount.set(pins);
+    }
+    
+    void beginIo() {
+        ioLock.lock();
+    }
+    
+    void endIo() {
+        ioLock.unlock();
+    }
+    
+    /**
+     * Whether a read into this frame is still in flight.
+     */
+    boolean isIoInProgress() {
+        return ioLock.isLocked();
+    }
+    
+    /**
+     * Block until any in-flight read into this frame has completed.
+     */
+    void awaitIo() {
+        ioLock.lock();
+        ioLock.unlock();
+    }
+    
+    void setPrefetched(boolean prefetched) {
+        this.prefetched.set(prefetched);
+    }
+    
+    /**
+     * Clear the prefetched flag, returning whether this call cleared it.
+     * True exactly once for the first reference to a prefetched page.
+     */
+    boolean takePrefetched() {
+        return prefetched.get() && prefetched.compareAndSet(true, false);
     }
     
     public void clear() {
-        data.clear();
-        for (int i = 0; i < PAGE_SIZE; i++) {
-            data.put((byte) 0);
-        }
-        data.position(0);
+        data.put(0, ZERO_PAGE, 0, data.capacity());
         dirty = true;
     }
 }
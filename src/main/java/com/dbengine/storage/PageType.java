@@ -8,7 +8,11 @@ public enum PageType {
     BTREE_INTERNAL(2),
     BTREE_LEAF(3),
     FREE_LIST(4),
-    METADATA(5);
+    METADATA(5),
+    OVERFLOW(6),
+    TABLE_HEADER(7),
+    DICTIONARY(8),
+    FREE_PAGE(9);
     
     private final byte id;
     
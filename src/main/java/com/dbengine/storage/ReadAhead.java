@@ -0,0 +1,70 @@
+package com.dbengine.storage;
+
+import java.util.List;
+
+/**
+ * Adaptive read-ahead for one sequential heap scan.
+ * Before the scan consumes a page, the next pages in the table's page list are
+ * handed to the buffer pool's background I/O executor. The window widens when
+ * the scan catches up with its prefetches (the read of the page it needs has
+ * not completed) and narrows slowly while prefetched pages are consistently ready,
+ * so it tracks how fast the consumer actually runs.
+ */
+class ReadAhead {
+    private static final int INITIAL_DEPTH = 4;
+    private static final int MIN_DEPTH = 1;
+    private static final int MAX_DEPTH = 64;
+    private static final int SHRINK_AFTER = 32;  //consecutive ready pages before narrowing the window
+    
+    private final BufferPool bufferPool;
+    private final List<Integer> pageIds;
+    private final BufferAccessStrategy strategy;
+    private final int maxDepth;
+    private int depth;
+    private int issuedUpTo;  //pages below this index have been prefetched
+    private int readyStreak;
+    
+    ReadAhead(BufferPool bufferPool, List<Integer> pageIds, BufferAccessStrategy strategy) {
+        this.bufferPool = bufferPool;
+        this.pageIds = pageIds;
+        this.strategy = strategy;
+        //prefetched pages must not be recycled by the ring before the scan reaches them,
+        //so rings too small to hold a window disable read-ahead
+        this.maxDepth = strategy != null ? Math.min(MAX_DEPTH, strategy.getRingSize() / 2) : MAX_DEPTH;
+        this.depth = Math.min(INITIAL_DEPTH, maxDepth);
+        this.issuedUpTo = 1;  //the first page is always read synchronously
+    }
+    
+    /**
+     * Called just before the scan fetches pageIds[index].
+     */
+    void beforeFetch(int index) {
+        if (maxDepth < MIN_DEPTH) {
+            return;
+        }
+        if (index < issuedUpTo && index > 0) {
+            adapt(bufferPool.isLoaded(pageIds.get(index)));
+        }
+        
+        int end = Math.min(pageIds.size(), index + 1 + depth);
+        for (int i = Math.max(issuedUpTo, index + 1); i < end; i++) {
+            bufferPool.prefetchPage(pageIds.get(i), strategy);
+        }
+        issuedUpTo = Math.max(issuedUpTo, end);
+    }
+    
+    private void adapt(boolean ready) {
+        if (!ready) {
+            //consumer outran the I/O: read further ahead
+            depth = Math.min(maxDepth, depth * 2);
+            readyStreak = 0;
+        } else if (++readyStreak >= SHRINK_AFTER) {
+            depth = Math.max(MIN_DEPTH, depth - 1);
+            readyStreak = 0;
+        }
+    }
+    
+    int getDepth() {
+        return depth;
+    }
+}
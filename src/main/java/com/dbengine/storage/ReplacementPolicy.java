@@ -0,0 +1,41 @@
+package com.dbengine.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Page replacement policy used by the buffer pool to choose eviction victims.
+ * Policies track frames by their index in the pool's frame array.
+ *
+ * recordAccess is called on every buffer hit without the pool's replacement lock,
+ * so implementations must be thread-safe. All other callbacks are made while the
+ * pool holds its replacement lock.
+ */
+public interface ReplacementPolicy {
+    
+    /**
+     * A page has been loaded (or created) in a frame.
+     */
+    void recordLoad(int frameId, int pageId);
+    
+    /**
+     * A resident page has been accessed again.
+     */
+    void recordAccess(int frameId);
+    
+    /**
+     * A page has left its frame, either through eviction or deletion.
+     */
+    void recordRemove(int frameId, int pageId);
+    
+    /**
+     * Choose a frame to evict to make room for incomingPageId.
+     * Candidates are offered to tryClaim in order of preference; the first frame
+     * it accepts is the victim. Returns -1 if no frame could be claimed.
+     */
+    int selectVictim(int incomingPageId, IntPredicate tryClaim);
+    
+    /**
+     * Name used in statistics output.
+     */
+    String getName();
+}
@@ -0,0 +1,20 @@
+package com.dbengine.storage;
+
+/**
+ * Built-in page replacement policies.
+ */
+public enum ReplacementPolicyType {
+    CLOCK,
+    LRU_K,
+    TWO_Q,
+    ARC;
+    
+    public ReplacementPolicy create(int poolSize) {
+        return switch (this) {
+            case CLOCK -> new ClockPolicy(poolSize);
+            case LRU_K -> new LruKPolicy(poolSize, 2);
+            case TWO_Q -> new TwoQueuePolicy(poolSize);
+            case ARC -> new ArcPolicy(poolSize);
+        };
+    }
+}
@@ -0,0 +1,458 @@
+package com.dbengine.storage;
+
+import com.dbengine.semantic.DataType;
+import com.dbengine.semantic.Schema;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * On-page encoding of a table's rows, derived once from its schema.
+ * Rows whose values match the schema use the compact format:
+ * - Format byte (COMPACT)
+ * - Null bitmap: one bit per column, set when the value is null
+ * - Fixed-width section: INTEGER (4 bytes) and BOOLEAN (1 byte) columns at
+ *   offsets fixed by the schema, reserved even when the value is null
+ * - Variable-width section: each non-null STRING column in column order, as a
+ *   varint (value << 2 | kind) where kind is 0 for an inline string (value is
+ *   its byte length, followed by the UTF-8 bytes), 1 for a string on overflow
+ *   pages (value is its byte length, followed by the first overflow page ID,
+ *   4 bytes) or 2 for a code in the table's StringDictionary
+ * Any fixed-width column is read in O(1) without looking at the others.
+ * Rows written before dictionaries existed start with COMPACT_V1 and use a
+ * single kind bit (0 inline, 1 overflow).
+ *
+ * Other rows use the tagged format: every value is a type tag (0 null, 1 int,
+ * 2 string, 3 boolean, 4 overflow pointer) followed by its data, with strings
+ * prefixed by a 4-byte length. Tags never equal a compact format byte, so all
+ * formats can live on the same page.
+ */
+final class RowFormat {
+    static final byte COMPACT_V1 = (byte) 0x80;
+    static final byte COMPACT = (byte) 0x81;
+    
+    private static final int INLINE = 0;
+    private static final int OVERFLOW = 1;
+    private static final int DICTIONARY = 2;
+    private static final int INT_SIZE = 4;
+    private static final int BOOLEAN_SIZE = 1;
+    private static final int PAGE_ID_SIZE = 4;
+    
+    private final DataType[] types;
+    private final int[] fixedOffsets;  //offset within the row, or -1 for strings and NULL columns
+    private final int bitmapSize;
+    private final int variableStart;   //offset of the variable-width section
+    private final RowLayout layout;
+    private final StringDictionary dictionary;  //null if the table has none
+    
+    RowFormat(Schema schema) {
+        this(schema, null);
+    }
+    
+    RowFormat(Schema schema, StringDictionary dictionary) {
+        this.dictionary = dictionary;
+        List<String> names = List.copyOf(schema.getColumnNames());
+        this.types = new DataType[names.size()];
+        this.fixedOffsets = new int[names.size()];
+        this.bitmapSize = (names.size() + 7) / 8;
+        
+        int offset = 1 + bitmapSize;
+        for (int i = 0; i < names.size(); i++) {
+            types[i] = schema.getColumnType(names.get(i)).orElseThrow();
+            fixedOffsets[i] = -1;
+            if (types[i] == DataType.INTEGER) {
+                fixedOffsets[i] = offset;
+                offset += INT_SIZE;
+            } else if (types[i] == DataType.BOOLEAN) {
+                fixedOffsets[i] = offset;
+                offset += BOOLEAN_SIZE;
+            }
+        }
+        this.variableStart = offset;
+        this.layout = RowLayout.of(names);
+    }
+    
+    int getColumnCount() {
+        return types.length;
+    }
+    
+    RowLayout getLayout() {
+        return layout;
+    }
+    
+    /**
+     * Mark which columns are in the given set, or return null if all are.
+     * Unknown names are ignored.
+     */
+    boolean[] columnMask(Set<String> columns) {
+        boolean[] mask = new boolean[types.length];
+        int selected = 0;
+        for (String column : columns) {
+            int index = layout.indexOf(column);
+            if (index != -1 && !mask[index]) {
+                mask[index] = true;
+                selected++;
+            }
+        }
+        return selected == types.length ? null : mask;
+    }
+    
+    boolean isCompactRow(ByteBuffer buffer, int offset) {
+        if (types.length == 0) {
+            return false;
+        }
+        byte format = buffer.get(offset);
+        return format == COMPACT || format == COMPACT_V1;
+    }
+    
+    /**
+     * Whether the values can use the compact format.
+     */
+    boolean isCompact(Object[] values) {
+        if (values.length != types.length) {
+            return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            boolean matches = switch (types[i]) {
+                case INTEGER -> value instanceof Integer;
+                case BOOLEAN -> value instanceof Boolean;
+                case STRING -> value instanceof String || value instanceof OverflowValue
+                        || value instanceof DictionaryValue;
+                case NULL -> false;
+            };
+            if (!matches) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Space insertTuple needs for the given tuple, including its slot entry.
+     */
+    int requiredSpace(Tuple tuple) {
+        return HeapPage.SLOT_SIZE + encodedSize(tuple.rawValues());
+    }
+    
+    int encodedSize(Object[] values) {
+        if (!isCompact(values)) {
+            int size = 0;
+            for (Object value : values) {
+                size += taggedSize(value);
+            }
+            return size;
+        }
+        int size = variableStart;
+        for (Object value : values) {
+            if (value instanceof DictionaryValue coded && coded.getDictionary() == dictionary) {
+                size += varintSize(coded.getCode() << 2 | DICTIONARY);
+                continue;
+            }
+            if (value instanceof DictionaryValue coded) {
+                value = coded.get();
+            }
+            if (value instanceof String s) {
+                int length = utf8Length(s);
+                size += varintSize(length << 2 | INLINE) + length;
+            } else if (value instanceof OverflowValue overflow) {
+                size += varintSize(overflow.getLength() << 2 | OVERFLOW) + PAGE_ID_SIZE;
+            }
+        }
+        return size;
+    }
+    
+    byte[] encode(Object[] values) {
+        ByteBuffer out = ByteBuffer.allocate(encodedSize(values));
+        if (!isCompact(values)) {
+            for (Object value : values) {
+                encodeTagged(out, value);
+            }
+            return out.array();
+        }
+        
+        out.put(0, COMPACT);
+        out.position(variableStart);
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                int bitmapByte = 1 + i / 8;
+                out.put(bitmapByte, (byte) (out.get(bitmapByte) | (1 << (i % 8))));
+            } else if (value instanceof Integer n) {
+                out.putInt(fixedOffsets[i], n);
+            } else if (value instanceof Boolean b) {
+                out.put(fixedOffsets[i], (byte) (b ? 1 : 0));
+            } else if (value instanceof DictionaryValue coded && coded.getDictionary() == dictionary) {
+                putVarint(out, coded.getCode() << 2 | DICTIONARY);
+            } else if (value instanceof OverflowValue overflow) {
+                putVarint(out, overflow.getLength() << 2 | OVERFLOW);
+                out.putInt(overflow.getFirstPageId());
+            } else {
+                //strings, and codes from another table's dictionary
+                byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                putVarint(out, bytes.length << 2 | INLINE);
+                out.put(bytes);
+            }
+        }
+        return out.array();
+    }
+    
+    /**
+     * Decode every column of the row at the given offset.
+     */
+    Object[] decode(ByteBuffer buffer, int offset, OverflowStore overflowStore) {
+        return decode(buffer, offset, null, overflowStore);
+    }
+    
+    /**
+     * Decode the selected columns of the row at the given offset, or all of
+     * them if selected is null. In a compact row the other columns are left as
+     * Tuple.UNDECODED and their strings are skipped without being built; a
+     * tagged row is always decoded in full.
+     */
+    Object[] decode(ByteBuffer buffer, int offset, boolean[] selected, OverflowStore overflowStore) {
+        Object[] values = new Object[types.length];
+        if (types.length == 0) {
+            return values;
+        }
+        if (!isCompactRow(buffer, offset)) {
+            int position = offset;
+            for (int i = 0; i < values.length; i++) {
+                position = decodeTagged(buffer, position, values, i, overflowStore);
+            }
+            return values;
+        }
+        
+        int kindBits = kindBits(buffer, offset);
+        int position = offset + variableStart;
+        for (int i = 0; i < values.length; i++) {
+            if (isNull(buffer, offset, i)) {
+                continue;
+            }
+            if (selected != null && !selected[i]) {
+                values[i] = Tuple.UNDECODED;
+                if (types[i] == DataType.STRING) {
+                    position = skipVariable(buffer, position, kindBits);
+                }
+            } else if (fixedOffsets[i] >= 0) {
+                values[i] = readFixed(buffer, offset, i);
+            } else if (types[i] == DataType.STRING) {
+                position = readVariable(buffer, position, kindBits, values, i, overflowStore);
+            }
+        }
+        return values;
+    }
+    
+    /**
+     * Decode one column of the row at the given offset. In the compact format
+     * fixed-width columns are read directly; strings skip only the strings
+     * stored before them.
+     */
+    Object decodeColumn(ByteBuffer buffer, int offset, int column, OverflowStore overflowStore) {
+        if (!isCompactRow(buffer, offset)) {
+            return decode(buffer, offset, overflowStore)[column];
+        }
+        if (isNull(buffer, offset, column)) {
+            return null;
+        }
+        if (fixedOffsets[column] >= 0) {
+            return readFixed(buffer, offset, column);
+        }
+        
+        int kindBits = kindBits(buffer, offset);
+        int position = offset + variableStart;
+        Object[] value = new Object[1];
+        for (int i = 0; i < column; i++) {
+            if (types[i] == DataType.STRING && !isNull(buffer, offset, i)) {
+                position = skipVariable(buffer, position, kindBits);
+            }
+        }
+        readVariable(buffer, position, kindBits, value, 0, overflowStore);
+        return value[0];
+    }
+    
+    private boolean isNull(ByteBuffer buffer, int offset, int column) {
+        return (buffer.get(offset + 1 + column / 8) & (1 << (column % 8))) != 0;
+    }
+    
+    private Object readFixed(ByteBuffer buffer, int offset, int column) {
+        int position = offset + fixedOffsets[column];
+        return types[column] == DataType.INTEGER ? (Object) buffer.getInt(position) : (Object) (buffer.get(position) == 1);
+    }
+    
+    private static int kindBits(ByteBuffer buffer, int offset) {
+        return buffer.get(offset) == COMPACT_V1 ? 1 : 2;
+    }
+    
+    /**
+     * Decode the string at the given position into values[index].
+     * Returns the position just past it.
+     */
+    private int readVariable(ByteBuffer buffer, int position, int kindBits, Object[] values, int index,
+                             OverflowStore overflowStore) {
+        int header = getVarint(buffer, position);
+        position += varintSize(header);
+        int kind = header & ((1 << kindBits) - 1);
+        int value = header >>> kindBits;
+        if (kind == DICTIONARY) {
+            if (dictionary == null) {
+                throw new IllegalStateException("Row uses a string dictionary but the table has none");
+            }
+            values[index] = new DictionaryValue(dictionary, value);
+            return position;
+        }
+        if (kind == OVERFLOW) {
+            //left on its overflow pages until the column is actually read
+            values[index] = new OverflowValue(overflowStore, buffer.getInt(position), value);
+            return position + PAGE_ID_SIZE;
+        }
+        values[index] = decodeString(buffer, position, value);
+        return position + value;
+    }
+    
+    private static int skipVariable(ByteBuffer buffer, int position, int kindBits) {
+        int header = getVarint(buffer, position);
+        position += varintSize(header);
+        int kind = header & ((1 << kindBits) - 1);
+        if (kind == DICTIONARY) {
+            return position;
+        }
+        return position + (kind == OVERFLOW ? PAGE_ID_SIZE : header >>> kindBits);
+    }
+    
+    static int taggedSize(Object value) {
+        if (value instanceof DictionaryValue coded) {
+            value = coded.get();
+        }
+        if (value == null) {
+            return 1;  //type byte
+        } else if (value instanceof Integer) {
+            return 1 + 4;  //type + int
+        } else if (value instanceof String) {
+            return 1 + 4 + utf8Length((String) value);  //type + length + data
+        } else if (value instanceof Boolean) {
+            return 1 + 1;  //type + boolean
+        } else if (value instanceof OverflowValue) {
+            return 1 + 4 + 4;  //type + first overflow page + length
+        }
+        throw new IllegalArgumentException("Unsupported type: " + value.getClass());
+    }
+    
+    private static void encodeTagged(ByteBuffer out, Object value) {
+        if (value instanceof DictionaryValue coded) {
+            value = coded.get();
+        }
+        if (value == null) {
+            out.put((byte) 0);
+        } else if (value instanceof Integer) {
+            out.put((byte) 1);
+            out.putInt((Integer) value);
+        } else if (value instanceof String) {
+            out.put((byte) 2);
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.putInt(bytes.length);
+            out.put(bytes);
+        } else if (value instanceof Boolean) {
+            out.put((byte) 3);
+            out.put((byte) (((Boolean) value) ? 1 : 0));
+        } else if (value instanceof OverflowValue overflow) {
+            out.put((byte) 4);
+            out.putInt(overflow.getFirstPageId());
+            out.putInt(overflow.getLength());
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + value.getClass());
+        }
+    }
+    
+    /**
+     * Decode the tagged value at the given offset into values[index].
+     * Returns the offset just past the value.
+     */
+    private static int decodeTagged(ByteBuffer buffer, int position, Object[] values, int index, OverflowStore overflowStore) {
+        byte typeId = buffer.get(position++);
+        
+        if (typeId == 0) {
+            values[index] = null;
+            return position;
+        } else if (typeId == 1) {
+            values[index] = buffer.getInt(position);
+            return position + 4;
+        } else if (typeId == 2) {
+            int length = buffer.getInt(position);
+            position += 4;
+            values[index] = decodeString(buffer, position, length);
+            return position + length;
+        } else if (typeId == 3) {
+            values[index] = buffer.get(position) == 1;
+            return position + 1;
+        } else if (typeId == 4) {
+            values[index] = new OverflowValue(overflowStore, buffer.getInt(position), buffer.getInt(position + 4));
+            return position + 8;
+        }
+        
+        throw new IllegalArgumentException("Unknown type id: " + typeId);
+    }
+    
+    private static String decodeString(ByteBuffer buffer, int position, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;  //unpaired surrogates are encoded as '?'
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+    
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    private static int getVarint(ByteBuffer buffer, int position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
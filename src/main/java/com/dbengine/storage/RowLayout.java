@@ -0,0 +1,89 @@
+package com.dbengine.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable mapping between column names and positions in a tuple.
+ * One layout is shared by every tuple of a table or of a projection, so
+ * tuples carry a reference instead of their own map. Operators look column
+ * ordinals up once per layout rather than by name for every row.
+ */
+public final class RowLayout {
+    private static final RowLayout EMPTY = new RowLayout(Map.of());
+    
+    private final Map<String, Integer> indexes;
+    private final List<String> columns;  //position -> name, null for unnamed positions
+    
+    private RowLayout(Map<String, Integer> indexes) {
+        this.indexes = indexes;
+        int size = 0;
+        for (int index : indexes.values()) {
+            size = Math.max(size, index + 1);
+        }
+        String[] names = new String[size];
+        for (Map.Entry<String, Integer> entry : indexes.entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+        this.columns = Collections.unmodifiableList(Arrays.asList(names));
+    }
+    
+    /**
+     * Layout with the given columns in order.
+     */
+    public static RowLayout of(List<String> columns) {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            indexes.put(columns.get(i), i);
+        }
+        return new RowLayout(indexes);
+    }
+    
+    /**
+     * Layout from a column name to position map.
+     */
+    public static RowLayout of(Map<String, Integer> columnIndexMap) {
+        if (columnIndexMap.isEmpty()) {
+            return EMPTY;
+        }
+        return new RowLayout(new HashMap<>(columnIndexMap));
+    }
+    
+    /**
+     * Position of a column, or -1 if the layout does not have it.
+     */
+    public int indexOf(String column) {
+        Integer index = indexes.get(column);
+        return index == null ? -1 : index;
+    }
+    
+    /**
+     * Column names by position.
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+    
+    public int size() {
+        return columns.size();
+    }
+    
+    /**
+     * A copy of the layout as a column name to position map.
+     */
+    public Map<String, Integer> toMap() {
+        return new HashMap<>(indexes);
+    }
+    
+    /**
+     * A new layout that also maps the given column to the given position.
+     */
+    RowLayout with(String column, int index) {
+        Map<String, Integer> updated = new HashMap<>(indexes);
+        updated.put(column, index);
+        return new RowLayout(updated);
+    }
+}
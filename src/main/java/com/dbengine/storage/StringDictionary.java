@@ -0,0 +1,264 @@
+package com.dbengine.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-table dictionary of short strings. Each distinct string gets the next
+ * integer code and compact rows store the code instead of the bytes. Codes
+ * are never reassigned, so the dictionary only grows; once it holds
+ * MAX_ENTRIES strings, new strings are stored inline.
+ *
+ * A new code is written to the data file before it is handed out, so a heap
+ * page holding the code can never reach the file ahead of the dictionary
+ * page that defines it, whatever order the buffer pool writes pages in.
+ * Writers that bypass the pool call sync first to also order the forces.
+ *
+ * Strings that already have a code are looked up without a lock; only
+ * adding a code, which writes the tail page, is synchronized.
+ *
+ * Dictionary page layout:
+ * - Header: page type (1 byte), next dictionary page ID (4 bytes), entry count (4 bytes)
+ * - Entries: length (2 bytes), UTF-8 bytes
+ */
+class StringDictionary {
+    static final int MAX_ENTRIES = 4096;
+    static final int MAX_LENGTH = 64;  //longer strings are rarely repeated
+    
+    private static final int NEXT_PAGE_OFFSET = 1;
+    private static final int ENTRY_COUNT_OFFSET = 5;
+    private static final int HEADER_SIZE = 9;  // 1 + 4 + 4
+    private static final int NO_PAGE = -1;
+    
+    private final BufferPool bufferPool;
+    private final int fileId;
+    private final int rootPageId;
+    private final Map<String, Integer> codes;  //read without a lock
+    private volatile String[] values;      //code -> string; replaced when full, so get needs no lock
+    private int size;
+    private int tailPageId;
+    private int tailOffset;
+    private int tailCount;
+    private boolean unsynced;  //codes written since the last sync
+    private volatile int[] ranks;          //code -> sorted position, rebuilt after the dictionary grows
+    private volatile Lookup lastLookup;    //filters look up the same literal for every row
+    
+    private record Lookup(String value, int code) {}
+    
+    /**
+     * Open the dictionary whose first page is rootPageId, or create an empty
+     * one in the given data file if rootPageId is negative.
+     */
+    StringDictionary(BufferPool bufferPool, int fileId, int rootPageId) throws IOException {
+        this.bufferPool = bufferPool;
+        this.fileId = fileId;
+        this.codes = new ConcurrentHashMap<>();
+        this.values = new String[16];
+        
+        if (rootPageId < 0) {
+            Page root = bufferPool.newPage(fileId, null);
+            this.rootPageId = root.getPageId();
+            initPage(root.getBuffer());
+            bufferPool.unpinPage(this.rootPageId, true);
+            this.tailPageId = this.rootPageId;
+            this.tailOffset = HEADER_SIZE;
+            return;
+        }
+        
+        this.rootPageId = rootPageId;
+        int pageId = rootPageId;
+        while (pageId != NO_PAGE) {
+            Page page = bufferPool.fetchPage(pageId);
+            ByteBuffer buffer = page.getBuffer();
+            int count = buffer.getInt(ENTRY_COUNT_OFFSET);
+            int position = HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[buffer.getShort(position)];
+                buffer.get(position + 2, bytes);
+                position += 2 + bytes.length;
+                track(new String(bytes, StandardCharsets.UTF_8));
+            }
+            int next = buffer.getInt(NEXT_PAGE_OFFSET);
+            bufferPool.unpinPage(pageId, false);
+            
+            tailPageId = pageId;
+            tailOffset = position;
+            tailCount = count;
+            pageId = next;
+        }
+    }
+    
+    private static void initPage(ByteBuffer buffer) {
+        buffer.put(0, PageType.DICTIONARY.getId());
+        buffer.putInt(NEXT_PAGE_OFFSET, NO_PAGE);
+        buffer.putInt(ENTRY_COUNT_OFFSET, 0);
+    }
+    
+    private void track(String value) {
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        values = current;  //publishes the new entry to unlocked readers
+        //added after values, so a code found without a lock is always in values
+        codes.put(value, size++);
+    }
+    
+    /**
+     * Return the tuple to store for the given one: unchanged unless it can use
+     * the compact row format and has short strings, otherwise a copy with
+     * those strings replaced by dictionary codes.
+     */
+    Tuple encode(Tuple tuple, RowFormat format) throws IOException {
+        Object[] values = tuple.rawValues();
+        if (!format.isCompact(values)) {
+            return tuple;
+        }
+        Tuple stored = null;
+        for (int i = 0; i < values.length; i++) {
+            if (!(values[i] instanceof String s)) {
+                continue;
+            }
+            int code = codeFor(s);
+            if (code == -1) {
+                continue;
+            }
+            if (stored == null) {
+                stored = tuple.copy();
+            }
+            stored.setValue(i, new DictionaryValue(this, code));
+        }
+        return stored == null ? tuple : stored;
+    }
+    
+    /**
+     * Code of a string, adding it if there is room. Returns -1 if the string
+     * is too long or the dictionary is full.
+     */
+    private int codeFor(String value) throws IOException {
+        Integer code = codes.get(value);
+        return code != null ? code : addCode(value);
+    }
+    
+    private synchronized int addCode(String value) throws IOException {
+        //another writer may have added it since the unlocked lookup
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_LENGTH || size >= MAX_ENTRIES) {
+            return -1;
+        }
+        
+        int linkedPageId = NO_PAGE;
+        if (tailOffset + 2 + bytes.length > bufferPool.getPageSize()) {
+            Page next = bufferPool.newPage(fileId, null);
+            int nextPageId = next.getPageId();
+            initPage(next.getBuffer());
+            bufferPool.unpinPage(nextPageId, true);
+            
+            Page tail = bufferPool.fetchPage(tailPageId);
+            tail.getBuffer().putInt(NEXT_PAGE_OFFSET, nextPageId);
+            bufferPool.unpinPage(tailPageId, true);
+            
+            linkedPageId = tailPageId;
+            tailPageId = nextPageId;
+            tailOffset = HEADER_SIZE;
+            tailCount = 0;
+        }
+        
+        Page tail = bufferPool.fetchPage(tailPageId);
+        ByteBuffer buffer = tail.getBuffer();
+        buffer.putShort(tailOffset, (short) bytes.length);
+        buffer.put(tailOffset + 2, bytes);
+        buffer.putInt(ENTRY_COUNT_OFFSET, ++tailCount);
+        bufferPool.unpinPage(tailPageId, true);
+        tailOffset += 2 + bytes.length;
+        
+        //the new page goes first so the link to it never points at a page that is not written
+        bufferPool.writeBack(tailPageId);
+        if (linkedPageId != NO_PAGE) {
+            bufferPool.writeBack(linkedPageId);
+        }
+        unsynced = true;
+        
+        track(value);
+        ranks = null;
+        lastLookup = null;
+        return size - 1;
+    }
+    
+    /**
+     * Force codes added since the last sync to stable storage. Callers that
+     * write pages holding codes straight to disk call this first.
+     */
+    synchronized void sync() throws IOException {
+        if (unsynced) {
+            bufferPool.getTablespace().getFile(fileId).sync();
+            unsynced = false;
+        }
+    }
+    
+    String get(int code) {
+        return values[code];
+    }
+    
+    /**
+     * Code of a string, or -1 if it is not in the dictionary.
+     */
+    int codeOf(String value) {
+        Lookup last = lastLookup;
+        if (last != null && last.value() == value) {
+            return last.code();
+        }
+        int code = codes.getOrDefault(value, -1);
+        if (code == -1) {
+            //misses are cached under the lock, so a code added meanwhile clears them
+            synchronized (this) {
+                code = codes.getOrDefault(value, -1);
+                lastLookup = new Lookup(value, code);
+                return code;
+            }
+        }
+        lastLookup = new Lookup(value, code);
+        return code;
+    }
+    
+    int rank(int code) {
+        int[] current = ranks;
+        if (current == null || code >= current.length) {
+            current = computeRanks();
+        }
+        return current[code];
+    }
+    
+    private synchronized int[] computeRanks() {
+        String[] values = this.values;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(code -> values[code]));
+        int[] computed = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            computed[order[i]] = i;
+        }
+        ranks = computed;
+        return computed;
+    }
+    
+    int getRootPageId() {
+        return rootPageId;
+    }
+    
+    synchronized int size() {
+        return size;
+    }
+}
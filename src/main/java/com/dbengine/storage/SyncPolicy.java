@@ -0,0 +1,13 @@
+package com.dbengine.storage;
+
+/**
+ * When the disk manager forces written pages to stable storage.
+ */
+public enum SyncPolicy {
+    /** Force after every page write. */
+    EVERY_WRITE,
+    /** Force once per batch: each flushAllPages and each background writer round. */
+    BATCH,
+    /** Force only at checkpoints (flushAllPages); background writes are left to the OS. */
+    CHECKPOINT
+}
@@ -3,76 +3,254 @@ package com.dbengine.storage;
 import com.dbengine.semantic.Schema;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Manages the storage of tuples for a table using heap pages.
  * Provides methods for insert, delete, update, and scan operations.
+ * A free-space map tracks how much room each page has, so inserts can reuse
+ * space in any page instead of only the most recently filled one. Strings that
+ * would make a tuple too large for its page are stored on overflow pages.
+ * Pages the table stops using, such as the overflow chains of deleted rows,
+ * go to a free-page list that later heap and overflow pages are taken from.
+ *
+ * Every table starts with a header page that points at its free-space map
+ * and its string dictionary. The map lists the table's heap pages in
+ * allocation order, so it doubles as the page directory: a table is reopened
+ * from its header page by reading only the map's and the dictionary's pages.
+ * All of a table's pages are allocated in the data file of its header page,
+ * which is the main data file unless the table was created in a file of its own.
+ *
+ * Header page layout: page type (1 byte), free-space map root page ID (4 bytes),
+ * dictionary root page ID (4 bytes), first free page ID (4 bytes)
  */
 public class TableHeap implements Iterable<Tuple> {
+    private static final int FSM_ROOT_OFFSET = 1;
+    private static final int DICTIONARY_ROOT_OFFSET = 5;
+    private static final int FREE_PAGES_OFFSET = 9;
+    private static final int BULK_RUN_PAGES = 64;  //pages packed before each write
+    
     private final BufferPool bufferPool;
     private final Schema schema;
+    private final RowFormat rowFormat;
     private final List<Integer> pageIds;
-    private int firstPageId;
-    private int currentInsertPageIndex; //track current page for inserts
+    private final FreeSpaceMap freeSpaceMap;
+    private final StringDictionary dictionary;
+    private final FreePageList freePages;
+    private final OverflowStore overflowStore;
+    private final int headerPageId;
+    private final int fileId;
+    private int currentInsertPageId; //page that received the last insert
     
+    /**
+     * Create a new, empty table in the main data file.
+     */
     public TableHeap(BufferPool bufferPool, Schema schema) throws IOException {
+        this(Tablespace.MAIN_FILE, bufferPool, schema);
+    }
+    
+    /**
+     * Create a new, empty table in the given data file of the buffer pool's tablespace.
+     */
+    public static TableHeap createInFile(BufferPool bufferPool, Schema schema, int fileId) throws IOException {
+        return new TableHeap(fileId, bufferPool, schema);
+    }
+    
+    private TableHeap(int fileId, BufferPool bufferPool, Schema schema) throws IOException {
         this.bufferPool = bufferPool;
         this.schema = schema;
+        this.fileId = fileId;
         this.pageIds = new ArrayList<>();
-        this.currentInsertPageIndex = 0;
         
-        //create first page
-        Page page = bufferPool.newPage();
-        this.firstPageId = page.getPageId();
-        this.pageIds.add(firstPageId);
+        Page header = bufferPool.newPage(fileId, null);
+        this.headerPageId = header.getPageId();
+        header.getBuffer().put(0, PageType.TABLE_HEADER.getId());
+        header.getBuffer().putInt(FREE_PAGES_OFFSET, FreePageList.NO_PAGE);
+        bufferPool.unpinPage(headerPageId, true);
+        
+        this.freeSpaceMap = new FreeSpaceMap(bufferPool, fileId, -1);
+        this.dictionary = new StringDictionary(bufferPool, fileId, -1);
+        header = bufferPool.fetchPage(headerPageId);
+        header.getBuffer().putInt(FSM_ROOT_OFFSET, freeSpaceMap.getRootPageId());
+        header.getBuffer().putInt(DICTIONARY_ROOT_OFFSET, dictionary.getRootPageId());
+        bufferPool.unpinPage(headerPageId, true);
+        
+        this.rowFormat = new RowFormat(schema, dictionary);
+        this.freePages = new FreePageList(bufferPool, fileId, headerPageId, FREE_PAGES_OFFSET);
+        this.overflowStore = new OverflowStore(bufferPool, freePages, rowFormat);
         
-        new HeapPage(page, schema);  //initialize the heap page
-        bufferPool.unpinPage(firstPageId, true);
+        //create first page
+        this.currentInsertPageId = allocateHeapPage(null);
     }
     
-    public TableHeap(BufferPool bufferPool, Schema schema, int firstPageId) {
+    /**
+     * Open an existing table from its header page.
+     */
+    public TableHeap(BufferPool bufferPool, Schema schema, int headerPageId) throws IOException {
         this.bufferPool = bufferPool;
         this.schema = schema;
-        this.pageIds = new ArrayList<>();
-        this.firstPageId = firstPageId;
-        this.pageIds.add(firstPageId);
-        this.currentInsertPageIndex = 0;
+        this.headerPageId = headerPageId;
+        this.fileId = Tablespace.fileId(headerPageId);
+        
+        Page header = bufferPool.fetchPage(headerPageId);
+        ByteBuffer buffer = header.getBuffer();
+        byte type = buffer.get(0);
+        int fsmRootPageId = buffer.getInt(FSM_ROOT_OFFSET);
+        int dictionaryRootPageId = buffer.getInt(DICTIONARY_ROOT_OFFSET);
+        bufferPool.unpinPage(headerPageId, false);
+        if (type != PageType.TABLE_HEADER.getId()) {
+            throw new IOException("Page " + headerPageId + " is not a table header page");
+        }
+        
+        this.freeSpaceMap = new FreeSpaceMap(bufferPool, fsmRootPageId);
+        this.pageIds = freeSpaceMap.getHeapPageIds();
+        this.currentInsertPageId = pageIds.get(pageIds.size() - 1);
+        
+        //tables created before dictionaries existed have 0 here; page 0 is never a dictionary
+        this.dictionary = new StringDictionary(bufferPool, fileId, dictionaryRootPageId > 0 ? dictionaryRootPageId : -1);
+        if (dictionaryRootPageId != dictionary.getRootPageId()) {
+            header = bufferPool.fetchPage(headerPageId);
+            header.getBuffer().putInt(DICTIONARY_ROOT_OFFSET, dictionary.getRootPageId());
+            bufferPool.unpinPage(headerPageId, true);
+        }
+        this.rowFormat = new RowFormat(schema, dictionary);
+        this.freePages = new FreePageList(bufferPool, fileId, headerPageId, FREE_PAGES_OFFSET);
+        this.overflowStore = new OverflowStore(bufferPool, freePages, rowFormat);
     }
     
     /**
      * Insert a tuple into the table.
      */
     public RecordId insertTuple(Tuple tuple) throws IOException {
-        //try to insert into current page
-        if (currentInsertPageIndex < pageIds.size()) {
-            int pageId = pageIds.get(currentInsertPageIndex);
-            Page page = bufferPool.fetchPage(pageId);
-            HeapPage heapPage = new HeapPage(page, schema);
-            
-            int slotNum = heapPage.insertTuple(tuple);
+        return insertTuple(tuple, null);
+    }
+    
+    /**
+     * Insert a tuple, routing page fetches and allocations through an access
+     * strategy so bulk loads recycle a private ring of frames. The page that took
+     * the previous insert is tried first; after that the free-space map is asked
+     * for a page with room, and only then is a new page allocated.
+     */
+    public RecordId insertTuple(Tuple tuple, BufferAccessStrategy strategy) throws IOException {
+        return place(prepare(tuple, null), strategy, false);
+    }
+    
+    /**
+     * Append tuples on new pages, bypassing the buffer pool. Pages are packed
+     * in a private buffer and written BULK_RUN_PAGES at a time as one run of
+     * freshly allocated pages; existing pages are never touched, so free space
+     * in them is not reused. The last, partly filled page takes later inserts.
+     * Several threads may bulk insert into the same table at once: each call
+     * packs and writes its own page runs, and only adding them to the table is
+     * serialized. Returns the number of tuples inserted.
+     */
+    public int bulkInsert(Iterator<Tuple> tuples) throws IOException {
+        int pageSize = bufferPool.getPageSize();
+        ByteBuffer packed = ByteBuffer.allocate(BULK_RUN_PAGES * pageSize);
+        List<Page> run = new ArrayList<>(BULK_RUN_PAGES);
+        List<HeapPage> heapPages = new ArrayList<>(BULK_RUN_PAGES);
+        List<Integer> chainPages = new ArrayList<>();  //overflow pages the run's rows point at
+        HeapPage heapPage = null;
+        int count = 0;
+        
+        while (tuples.hasNext()) {
+            Tuple tuple = prepare(tuples.next(), null, chainPages);
+            if (heapPage == null || heapPage.insertTuple(tuple) == -1) {
+                if (run.size() == BULK_RUN_PAGES) {
+                    appendRun(run, heapPages, chainPages);
+                }
+                Page page = Page.view(Page.INVALID_PAGE_ID, packed.slice(run.size() * pageSize, pageSize));
+                page.clear();
+                heapPage = new HeapPage(page, rowFormat, overflowStore);
+                run.add(page);
+                heapPages.add(heapPage);
+                if (heapPage.insertTuple(tuple) == -1) {
+                    throw new IOException("Failed to insert tuple into new page");
+                }
+            }
+            count++;
+        }
+        appendRun(run, heapPages, chainPages);
+        return count;
+    }
+    
+    /**
+     * Give a run of packed pages consecutive page IDs, write them and add
+     * them to the table, then clear the run. The overflow chains the run
+     * points at are written first.
+     */
+    private void appendRun(List<Page> run, List<HeapPage> heapPages, List<Integer> chainPages) throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        int firstPageId = bufferPool.allocatePages(fileId, run.size());
+        for (int i = 0; i < run.size(); i++) {
+            run.get(i).setPageId(firstPageId + i);
+        }
+        //the run may hold new dictionary codes and overflow chains, which must be durable before it is
+        overflowStore.writeBack(chainPages);
+        dictionary.sync();
+        bufferPool.writeNewPages(run);
+        
+        synchronized (this) {
+            for (int i = 0; i < run.size(); i++) {
+                int pageId = firstPageId + i;
+                pageIds.add(pageId);
+                freeSpaceMap.addPage(pageId, heapPages.get(i).getFreeSpace());
+            }
+            currentInsertPageId = firstPageId + run.size() - 1;
+        }
+        run.clear();
+        heapPages.clear();
+    }
+    
+    /**
+     * Replace short strings with dictionary codes and move strings that make
+     * the tuple too large to overflow pages. Overflow values are only kept if
+     * previous, the stored row being replaced, owns the same chain; others
+     * are copied so that no two rows share a chain.
+     */
+    private Tuple prepare(Tuple tuple, Tuple previous) throws IOException {
+        return prepare(tuple, previous, null);
+    }
+    
+    /**
+     * Prepare a tuple, adding the overflow pages written for it to chainPages
+     * if it is not null.
+     */
+    private Tuple prepare(Tuple tuple, Tuple previous, List<Integer> chainPages) throws IOException {
+        Tuple detached = overflowStore.detach(tuple, previous);
+        return overflowStore.externalize(dictionary.encode(detached, rowFormat), chainPages);
+    }
+    
+    private RecordId place(Tuple tuple, BufferAccessStrategy strategy, boolean moved) throws IOException {
+        int slotNum = tryInsert(currentInsertPageId, tuple, strategy, moved);
+        if (slotNum != -1) {
+            return new RecordId(currentInsertPageId, slotNum);
+        }
+        
+        //a page that fails despite its bucket is re-bucketed by tryInsert, so this terminates
+        int requiredSpace = rowFormat.requiredSpace(tuple);
+        while (true) {
+            int pageId = freeSpaceMap.findPage(requiredSpace);
+            if (pageId == -1) {
+                break;
+            }
+            slotNum = tryInsert(pageId, tuple, strategy, moved);
             if (slotNum != -1) {
-                bufferPool.unpinPage(pageId, true);
+                currentInsertPageId = pageId;
                 return new RecordId(pageId, slotNum);
             }
-            
-            //current page is full, move to next
-            bufferPool.unpinPage(pageId, false);
-            currentInsertPageIndex++;
         }
         
         //need to allocate a new page
-        Page newPage = bufferPool.newPage();
-        int newPageId = newPage.getPageId();
-        pageIds.add(newPageId);
-        currentInsertPageIndex = pageIds.size() - 1;
-        
-        HeapPage heapPage = new HeapPage(newPage, schema);
-        int slotNum = heapPage.insertTuple(tuple);
-        bufferPool.unpinPage(newPageId, true);
-        
+        int newPageId = allocateHeapPage(strategy);
+        currentInsertPageId = newPageId;
+        slotNum = tryInsert(newPageId, tuple, strategy, moved);
         if (slotNum == -1) {
             throw new IOException("Failed to insert tuple into new page");
         }
@@ -81,40 +259,142 @@ public class TableHeap implements Iterable<Tuple> {
     }
     
     /**
-     * Get a tuple by its record ID.
+     * Insert into one page and record its remaining space. Returns the slot
+     * number, or -1 if the tuple does not fit.
+     */
+    private int tryInsert(int pageId, Tuple tuple, BufferAccessStrategy strategy, boolean moved) throws IOException {
+        Page page = bufferPool.fetchPage(pageId, strategy);
+        HeapPage heapPage = new HeapPage(page, rowFormat, overflowStore);
+        int slotNum = moved ? heapPage.insertMovedTuple(tuple) : heapPage.insertTuple(tuple);
+        int freeSpace = heapPage.getFreeSpace();
+        bufferPool.unpinPage(pageId, slotNum != -1);
+        freeSpaceMap.update(pageId, freeSpace);
+        return slotNum;
+    }
+    
+    private int allocateHeapPage(BufferAccessStrategy strategy) throws IOException {
+        Page page = freePages.newPage(strategy);
+        int pageId = page.getPageId();
+        int freeSpace = new HeapPage(page, rowFormat, overflowStore).getFreeSpace();  //initializes the heap page
+        bufferPool.unpinPage(pageId, true);
+        
+        pageIds.add(pageId);
+        freeSpaceMap.addPage(pageId, freeSpace);
+        return pageId;
+    }
+    
+    /**
+     * Get a tuple by its record ID, following a redirect if the tuple was moved.
      */
     public Tuple getTuple(RecordId rid) throws IOException {
         Page page = bufferPool.fetchPage(rid.pageId());
-        HeapPage heapPage = new HeapPage(page, schema);
-        Tuple tuple = heapPage.getTuple(rid.slotNum());
+        HeapPage heapPage = new HeapPage(page, rowFormat, overflowStore);
+        RecordId location = heapPage.getRedirect(rid.slotNum());
+        Tuple tuple = location == null ? heapPage.getTuple(rid.slotNum()) : null;
+        bufferPool.unpinPage(rid.pageId(), false);
+        
+        if (location != null) {
+            Page movedPage = bufferPool.fetchPage(location.pageId());
+            tuple = new HeapPage(movedPage, rowFormat, overflowStore).getTuple(location.slotNum());
+            bufferPool.unpinPage(location.pageId(), false);
+        }
         
         if (tuple != null) {
             tuple.setRecordId(rid);
         }
-        
-        bufferPool.unpinPage(rid.pageId(), false);
         return tuple;
     }
     
     /**
-     * Delete a tuple by its record ID.
+     * Delete a tuple by its record ID, along with its moved copy if it has one,
+     * and free its overflow chains.
      */
     public void deleteTuple(RecordId rid) throws IOException {
+        Tuple old = getTuple(rid);
         Page page = bufferPool.fetchPage(rid.pageId());
-        HeapPage heapPage = new HeapPage(page, schema);
+        HeapPage heapPage = new HeapPage(page, rowFormat, overflowStore);
+        RecordId location = heapPage.getRedirect(rid.slotNum());
         heapPage.deleteTuple(rid.slotNum());
+        int freeSpace = heapPage.getFreeSpace();
         bufferPool.unpinPage(rid.pageId(), true);
+        freeSpaceMap.update(rid.pageId(), freeSpace);
+        
+        if (location != null) {
+            deleteAt(location);
+        }
+        if (old != null) {
+            overflowStore.freeReplaced(old, null);
+        }
+    }
+    
+    private void deleteAt(RecordId location) throws IOException {
+        Page page = bufferPool.fetchPage(location.pageId());
+        HeapPage heapPage = new HeapPage(page, rowFormat, overflowStore);
+        heapPage.deleteTuple(location.slotNum());
+        int freeSpace = heapPage.getFreeSpace();
+        bufferPool.unpinPage(location.pageId(), true);
+        freeSpaceMap.update(location.pageId(), freeSpace);
     }
     
     /**
-     * Update a tuple by its record ID.
+     * Update a tuple by its record ID. A tuple that no longer fits in its page
+     * is moved to a page with room and its slot becomes a redirect, so the
+     * record ID stays valid. Overflow chains of the old version that the new
+     * one does not keep are freed. Returns false if the tuple does not exist.
      */
     public boolean updateTuple(RecordId rid, Tuple tuple) throws IOException {
+        Tuple old = getTuple(rid);
+        if (old == null) {
+            return false;
+        }
+        Tuple stored = prepare(tuple, old);
+        if (!replace(rid, stored)) {
+            overflowStore.freeReplaced(stored, old);  //chains written for a row that vanished
+            return false;
+        }
+        overflowStore.freeReplaced(old, stored);
+        return true;
+    }
+    
+    private boolean replace(RecordId rid, Tuple tuple) throws IOException {
         Page page = bufferPool.fetchPage(rid.pageId());
-        HeapPage heapPage = new HeapPage(page, schema);
-        boolean success = heapPage.updateTuple(rid.slotNum(), tuple);
+        HeapPage heapPage = new HeapPage(page, rowFormat, overflowStore);
+        RecordId location = heapPage.getRedirect(rid.slotNum());
+        boolean exists = location != null || heapPage.getTuple(rid.slotNum()) != null;
+        boolean success = location == null && exists && heapPage.updateTuple(rid.slotNum(), tuple);
+        int freeSpace = heapPage.getFreeSpace();
+        bufferPool.unpinPage(rid.pageId(), success);
+        freeSpaceMap.update(rid.pageId(), freeSpace);
+        if (success || !exists) {
+            return success;
+        }
+        
+        if (location != null) {
+            //already moved: try to update the moved copy where it is
+            Page movedPage = bufferPool.fetchPage(location.pageId());
+            HeapPage movedHeapPage = new HeapPage(movedPage, rowFormat, overflowStore);
+            success = movedHeapPage.updateTuple(location.slotNum(), tuple);
+            freeSpace = movedHeapPage.getFreeSpace();
+            bufferPool.unpinPage(location.pageId(), success);
+            freeSpaceMap.update(location.pageId(), freeSpace);
+            if (success) {
+                return true;
+            }
+        }
+        
+        //move the tuple and point its home slot at the new copy, replacing any earlier redirect
+        RecordId newLocation = place(tuple, null, true);
+        page = bufferPool.fetchPage(rid.pageId());
+        heapPage = new HeapPage(page, rowFormat, overflowStore);
+        heapPage.setRedirect(rid.slotNum(), newLocation);
+        freeSpace = heapPage.getFreeSpace();
         bufferPool.unpinPage(rid.pageId(), true);
-        return success;
+        freeSpaceMap.update(rid.pageId(), freeSpace);
+        
+        if (location != null) {
+            deleteAt(location);
+        }
+        return true;
     }
     
     /**
@@ -124,37 +404,107 @@ public class TableHeap implements Iterable<Tuple> {
         List<Tuple> allTuples = new ArrayList<>();
         
         for (int pageId : pageIds) {
-            Page page = bufferPool.fetchPage(pageId);
-            HeapPage heapPage = new HeapPage(page, schema);
-            allTuples.addAll(heapPage.getAllTuples());
-            bufferPool.unpinPage(pageId, false);
+            allTuples.addAll(readPage(pageId, null, null));
         }
         
         return allTuples;
     }
     
+    /**
+     * Read the tuples whose home is the given page. Moved tuples are read from
+     * their current page through the redirect in their home slot, and are
+     * skipped where they physically live, so each tuple is returned once.
+     */
+    private List<Tuple> readPage(int pageId, BufferAccessStrategy strategy, boolean[] columns) throws IOException {
+        Page page = bufferPool.fetchPage(pageId, strategy);
+        HeapPage heapPage = new HeapPage(page, rowFormat, overflowStore);
+        List<Tuple> tuples = heapPage.getAllTuples(columns);
+        List<Integer> redirectSlots = heapPage.getRedirectSlots();
+        bufferPool.unpinPage(pageId, false);
+        
+        for (int slotNum : redirectSlots) {
+            Tuple tuple = getTuple(new RecordId(pageId, slotNum));
+            if (tuple != null) {
+                tuples.add(tuple);
+            }
+        }
+        return tuples;
+    }
+    
     @Override
     public Iterator<Tuple> iterator() {
-        return new HeapIterator();
+        return iterator(BufferAccessStrategy.Type.BULK_READ);
+    }
+    
+    /**
+     * Scan the table. Scans larger than a quarter of the buffer pool run through
+     * a private ring of frames of the given type so they do not flush the pool.
+     */
+    public Iterator<Tuple> iterator(BufferAccessStrategy.Type strategyType) {
+        return iterator(strategyType, null);
+    }
+    
+    /**
+     * Scan the table, decoding only the given columns up front. Other columns
+     * are decoded from a copy of the row if they are read, so the set is a
+     * hint; null means all columns.
+     */
+    public HeapIterator iterator(BufferAccessStrategy.Type strategyType, Set<String> columns) {
+        BufferAccessStrategy strategy = null;
+        if (pageIds.size() > bufferPool.getPoolSize() / 4) {
+            strategy = bufferPool.newAccessStrategy(strategyType);
+        }
+        return new HeapIterator(strategy, columns == null ? null : rowFormat.columnMask(columns));
+    }
+    
+    /**
+     * Create an access strategy for bulk operations on this table.
+     */
+    public BufferAccessStrategy newAccessStrategy(BufferAccessStrategy.Type type) {
+        return bufferPool.newAccessStrategy(type);
     }
     
     public Schema getSchema() {
         return schema;
     }
     
+    /**
+     * The table's header page, from which it can be reopened.
+     */
     public int getFirstPageId() {
-        return firstPageId;
+        return headerPageId;
+    }
+    
+    /**
+     * The data file holding the table's pages.
+     */
+    public int getFileId() {
+        return fileId;
+    }
+    
+    public int getFreeSpaceMapPageId() {
+        return freeSpaceMap.getRootPageId();
+    }
+    
+    public int getNumPages() {
+        return pageIds.size();
     }
     
     /**
      * Iterator for scanning all tuples in the table.
      */
-    private class HeapIterator implements Iterator<Tuple> {
+    public class HeapIterator implements Iterator<Tuple> {
+        private final BufferAccessStrategy strategy;
+        private final boolean[] columns;  //columns to decode up front, or null for all
+        private final ReadAhead readAhead;
         private int currentPageIndex = 0;
         private List<Tuple> currentPageTuples = new ArrayList<>();
         private int currentTupleIndex = 0;
         
-        public HeapIterator() {
+        private HeapIterator(BufferAccessStrategy strategy, boolean[] columns) {
+            this.strategy = strategy;
+            this.columns = columns;
+            this.readAhead = new ReadAhead(bufferPool, pageIds, strategy);
             loadNextPage();
         }
         
@@ -174,18 +524,23 @@ public class TableHeap implements Iterable<Tuple> {
             return currentPageTuples.get(currentTupleIndex++);
         }
         
+        /**
+         * Current read-ahead window, in pages.
+         */
+        public int getReadAheadDepth() {
+            return readAhead.getDepth();
+        }
+        
         private void loadNextPage() {
             if (currentPageIndex >= pageIds.size()) {
                 return;
             }
             
             try {
+                readAhead.beforeFetch(currentPageIndex);
                 int pageId = pageIds.get(currentPageIndex++);
-                Page page = bufferPool.fetchPage(pageId);
-                HeapPage heapPage = new HeapPage(page, schema);
-                currentPageTuples = heapPage.getAllTuples();
+                currentPageTuples = readPage(pageId, strategy, columns);
                 currentTupleIndex = 0;
-                bufferPool.unpinPage(pageId, false);
             } catch (IOException e) {
                 throw new RuntimeException("Failed to load page", e);
             }
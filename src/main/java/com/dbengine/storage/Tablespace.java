@@ -0,0 +1,228 @@
+package com.dbengine.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The data files of a database, each with its own DiskManager.
+ * File 0 is the main data file, which holds the catalog and any table created
+ * without a file of its own. Other files are named file_N.db after their file
+ * ID and live in the tablespace's directory, so a table with its own file can
+ * be dropped by deleting that file, and I/O on different files never waits
+ * for the same channel lock.
+ *
+ * A page ID is a global page address: the low PAGE_BITS bits are the page
+ * number within its file and the bits above them are the file ID. Pages of
+ * file 0 therefore keep their plain page numbers as IDs.
+ */
+public class Tablespace {
+    public static final int MAIN_FILE = 0;
+    static final int PAGE_BITS = 22;
+    static final int MAX_PAGES_PER_FILE = 1 << PAGE_BITS;  //16GB of 4KB pages
+    static final int MAX_FILES = 1 << (Integer.SIZE - 1 - PAGE_BITS);
+    
+    private static final String FILE_PREFIX = "file_";
+    private static final String FILE_SUFFIX = ".db";
+    
+    /**
+     * Opens or creates the DiskManager for one data file.
+     */
+    public interface FileOpener {
+        DiskManager open(Path path, int fileId) throws IOException;
+    }
+    
+    private final Path directory;  //null if files cannot be added
+    private final FileOpener opener;
+    private volatile DiskManager[] files;  //indexed by file ID, replaced wholesale when a file is added or dropped
+    
+    /**
+     * A tablespace with only the given main data file.
+     */
+    public Tablespace(DiskManager mainFile) {
+        this.directory = null;
+        this.opener = null;
+        this.files = new DiskManager[]{mainFile};
+    }
+    
+    /**
+     * Open the tablespace in a directory: the main data file plus every
+     * file_N.db found there. New files are opened with the given opener.
+     */
+    public Tablespace(Path directory, DiskManager mainFile, FileOpener opener) throws IOException {
+        this.directory = directory;
+        this.opener = opener;
+        
+        DiskManager[] opened = new DiskManager[]{mainFile};
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path path : paths) {
+                int fileId = parseFileId(path);
+                if (fileId <= MAIN_FILE || fileId >= MAX_FILES) {
+                    continue;  //not one of ours
+                }
+                if (fileId >= opened.length) {
+                    opened = Arrays.copyOf(opened, fileId + 1);
+                }
+                opened[fileId] = opener.open(path, fileId);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (int i = 1; i < opened.length; i++) {
+                if (opened[i] != null) {
+                    opened[i].close();
+                }
+            }
+            throw e;
+        }
+        this.files = opened;
+    }
+    
+    private static int parseFileId(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Global page ID of a page in a file.
+     */
+    public static int pageId(int fileId, int pageNo) {
+        return (fileId << PAGE_BITS) | pageNo;
+    }
+    
+    public static int fileId(int pageId) {
+        return pageId >>> PAGE_BITS;
+    }
+    
+    public static int pageNo(int pageId) {
+        return pageId & (MAX_PAGES_PER_FILE - 1);
+    }
+    
+    /**
+     * Create an empty data file and return its file ID.
+     */
+    public synchronized int createFile() throws IOException {
+        if (directory == null) {
+            throw new IllegalStateException("Tablespace has no directory for new data files");
+        }
+        DiskManager[] current = files;
+        int fileId = 1;
+        while (fileId < current.length && current[fileId] != null) {
+            fileId++;
+        }
+        if (fileId >= MAX_FILES) {
+            throw new IOException("Tablespace already has " + (MAX_FILES - 1) + " data files");
+        }
+        
+        Path path = pathOf(fileId);
+        Files.deleteIfExists(path);  //left behind by an interrupted drop
+        DiskManager file = opener.open(path, fileId);
+        DiskManager[] grown = Arrays.copyOf(current, Math.max(current.length, fileId + 1));
+        grown[fileId] = file;
+        files = grown;
+        return fileId;
+    }
+    
+    /**
+     * Close and delete a data file. The caller must make sure no cached page
+     * of the file is written back afterwards; see BufferPool.dropFile.
+     */
+    public synchronized void dropFile(int fileId) throws IOException {
+        if (fileId == MAIN_FILE) {
+            throw new IllegalArgumentException("Cannot drop the main data file");
+        }
+        DiskManager file = getFile(fileId);
+        DiskManager[] shrunk = files.clone();
+        shrunk[fileId] = null;
+        files = shrunk;
+        file.close();
+        Files.deleteIfExists(pathOf(fileId));
+    }
+    
+    private Path pathOf(int fileId) {
+        return directory.resolve(FILE_PREFIX + fileId + FILE_SUFFIX);
+    }
+    
+    public DiskManager getFile(int fileId) {
+        DiskManager[] current = files;
+        DiskManager file = fileId >= 0 && fileId < current.length ? current[fileId] : null;
+        if (file == null) {
+            throw new IllegalArgumentException("No data file with ID " + fileId);
+        }
+        return file;
+    }
+    
+    /**
+     * The data file that holds the given page.
+     */
+    DiskManager fileOf(int pageId) {
+        return getFile(fileId(pageId));
+    }
+    
+    public DiskManager getMainFile() {
+        return files[MAIN_FILE];
+    }
+    
+    public int getPageSize() {
+        return getMainFile().getPageSize();
+    }
+    
+    /**
+     * IDs of the open data files, starting with the main one.
+     */
+    public List<Integer> getFileIds() {
+        List<Integer> fileIds = new ArrayList<>();
+        DiskManager[] current = files;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != null) {
+                fileIds.add(i);
+            }
+        }
+        return fileIds;
+    }
+    
+    /**
+     * Force every file with unsynced writes to stable storage.
+     */
+    public void sync() throws IOException {
+        for (DiskManager file : files) {
+            if (file != null) {
+                file.sync();
+            }
+        }
+    }
+    
+    public void syncBatch() throws IOException {
+        for (DiskManager file : files) {
+            if (file != null) {
+                file.syncBatch();
+            }
+        }
+    }
+    
+    /**
+     * Close every data file.
+     */
+    public void close() throws IOException {
+        IOException failure = null;
+        for (DiskManager file : files) {
+            if (file == null) {
+                continue;
+            }
+            try {
+                file.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -1,25 +1,41 @@
 package com.dbengine.storage;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Represents a single row/tuple in the database.
+ * Large strings read from a table may be held as OverflowValues; the getters
+ * resolve them on first access. Short strings may be held as DictionaryValues,
+ * which the getters turn into strings. A tuple read by a scan that asked for only
+ * some columns keeps a copy of its encoded row and decodes the other columns
+ * the first time they are read. Column names are resolved through a RowLayout
+ * shared with the other tuples of the same table or projection.
  */
 public class Tuple {
+    static final Object UNDECODED = new Object();  //placeholder for a column still in the encoded row
+    
     private final Object[] values;
-    private final Map<String, Integer> columnIndexMap;
+    private RowLayout layout;
+    private final EncodedRow encoded;  //source of UNDECODED values, or null
     private RecordId rid;
     
     public Tuple(int numColumns) {
-        this.values = new Object[numColumns];
-        this.columnIndexMap = new HashMap<>();
+        this(new Object[numColumns], RowLayout.of(Map.of()));
     }
     
     public Tuple(Object[] values, Map<String, Integer> columnIndexMap) {
+        this(values, RowLayout.of(columnIndexMap));
+    }
+    
+    public Tuple(Object[] values, RowLayout layout) {
+        this(values, layout, null);
+    }
+    
+    Tuple(Object[] values, RowLayout layout, EncodedRow encoded) {
         this.values = values;
-        this.columnIndexMap = new HashMap<>(columnIndexMap);
+        this.layout = layout;
+        this.encoded = encoded;
     }
     
     public void setValue(int index, Object value) {
@@ -33,31 +49,109 @@ public class Tuple {
         if (index < 0 || index >= values.length) {
             throw new IndexOutOfBoundsException("Invalid column index: " + index);
         }
-        return values[index];
+        return resolve(index);
     }
     
     public Object getValue(String columnName) {
-        Integer index = columnIndexMap.get(columnName);
-        if (index == null) {
+        int index = layout.indexOf(columnName);
+        if (index == -1) {
             throw new IllegalArgumentException("Column not found: " + columnName);
         }
-        return values[index];
+        return resolve(index);
+    }
+    
+    /**
+     * Get a column value, leaving a dictionary-encoded string as its
+     * DictionaryValue so that it can be compared by code.
+     */
+    public Object getEncodedValue(String columnName) {
+        int index = layout.indexOf(columnName);
+        if (index == -1) {
+            throw new IllegalArgumentException("Column not found: " + columnName);
+        }
+        Object value = decoded(index);
+        if (value instanceof OverflowValue overflow) {
+            value = overflow.get();
+            values[index] = value;
+        }
+        return value;
+    }
+    
+    private Object resolve(int index) {
+        Object value = decoded(index);
+        if (value instanceof OverflowValue overflow) {
+            value = overflow.get();
+            values[index] = value;
+        } else if (value instanceof DictionaryValue coded) {
+            //keep the code: the row may still be written back
+            return coded.get();
+        }
+        return value;
+    }
+    
+    private Object decoded(int index) {
+        Object value = values[index];
+        if (value == UNDECODED) {
+            value = encoded.decode(index);
+            values[index] = value;
+        }
+        return value;
     }
     
     public void setColumnIndex(String columnName, int index) {
-        columnIndexMap.put(columnName, index);
+        layout = layout.with(columnName, index);
     }
     
     public int getSize() {
         return values.length;
     }
     
+    /**
+     * All values with overflow and dictionary-encoded strings resolved.
+     */
     public Object[] getValues() {
+        Object[] resolved = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            resolved[i] = resolve(i);
+        }
+        return resolved;
+    }
+    
+    /**
+     * Read every overflow value into a string, so the tuple stays readable
+     * after the row is deleted or updated and its overflow pages are freed.
+     */
+    public void resolveOverflow() {
+        Object[] raw = rawValues();
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] instanceof OverflowValue overflow) {
+                raw[i] = overflow.get();
+            }
+        }
+    }
+    
+    /**
+     * The values as stored, without reading overflow pages.
+     */
+    Object[] rawValues() {
+        if (encoded != null) {
+            for (int i = 0; i < values.length; i++) {
+                decoded(i);
+            }
+        }
         return values;
     }
     
+    public RowLayout getLayout() {
+        return layout;
+    }
+    
+    /**
+     * A copy of the column name to position map. Prefer getLayout, which
+     * does not copy.
+     */
     public Map<String, Integer> getColumnIndexMap() {
-        return new HashMap<>(columnIndexMap);
+        return layout.toMap();
     }
     
     public RecordId getRecordId() {
@@ -70,13 +164,13 @@ public class Tuple {
     
     public Tuple copy() {
         Object[] newValues = Arrays.copyOf(values, values.length);
-        Tuple copy = new Tuple(newValues, columnIndexMap);
+        Tuple copy = new Tuple(newValues, layout, encoded);
         copy.setRecordId(rid);
         return copy;
     }
     
     @Override
     public String toString() {
-        return Arrays.toString(values);
+        return Arrays.toString(rawValues());
     }
 }
@@ -0,0 +1,82 @@
+package com.dbengine.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha).
+ * New pages enter a FIFO (A1in). Pages evicted from it are remembered in a
+ * ghost queue (A1out); a page that is requested again while remembered is
+ * promoted to the main LRU queue (Am). One-pass scans never reach Am.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+    private final int maxA1in;
+    private final int maxA1out;
+    private final LinkedHashSet<Integer> a1in;   //frame IDs, FIFO order
+    private final LinkedHashSet<Integer> am;     //frame IDs, LRU order
+    private final LinkedHashSet<Integer> a1out;  //ghost page IDs, FIFO order
+    
+    public TwoQueuePolicy(int poolSize) {
+        this.maxA1in = Math.max(1, poolSize / 4);
+        this.maxA1out = Math.max(1, poolSize / 2);
+        this.a1in = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+    }
+    
+    @Override
+    public synchronized void recordLoad(int frameId, int pageId) {
+        if (a1out.remove(pageId)) {
+            am.add(frameId);
+        } else {
+            a1in.add(frameId);
+        }
+    }
+    
+    @Override
+    public synchronized void recordAccess(int frameId) {
+        //hits in A1in are treated as correlated and do not promote
+        if (am.remove(frameId)) {
+            am.add(frameId);
+        }
+    }
+    
+    @Override
+    public synchronized void recordRemove(int frameId, int pageId) {
+        if (a1in.remove(frameId)) {
+            a1out.add(pageId);
+            if (a1out.size() > maxA1out) {
+                Iterator<Integer> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            am.remove(frameId);
+        }
+    }
+    
+    @Override
+    public synchronized int selectVictim(int incomingPageId, IntPredicate tryClaim) {
+        if (a1in.size() > maxA1in || am.isEmpty()) {
+            int victim = claimFirst(a1in, tryClaim);
+            return victim != -1 ? victim : claimFirst(am, tryClaim);
+        }
+        int victim = claimFirst(am, tryClaim);
+        return victim != -1 ? victim : claimFirst(a1in, tryClaim);
+    }
+    
+    private int claimFirst(LinkedHashSet<Integer> queue, IntPredicate tryClaim) {
+        for (int frameId : queue) {
+            if (tryClaim.test(frameId)) {
+                return frameId;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public String getName() {
+        return "2Q";
+    }
+}
@@ -118,6 +118,67 @@ class ExecutionTest {
         project.close();
     }
     
+    @Test
+    void testTuplesShareLayouts() throws Exception {
+        SeqScanOperator scan = new SeqScanOperator(tableHeap);
+        ProjectionOperator project = new ProjectionOperator(scan, List.of("name", "id"));
+        
+        project.open();
+        Tuple first = project.next();
+        Tuple second = project.next();
+        project.close();
+        
+        assertSame(first.getLayout(), second.getLayout());
+        assertEquals(List.of("name", "id"), first.getLayout().getColumns());
+        assertEquals("User1", second.getValue("name"));
+        assertEquals(1, second.getValue(1));
+        
+        Tuple scanned = tableHeap.getAllTuples().get(0);
+        assertSame(scanned.getLayout(), tableHeap.getAllTuples().get(1).getLayout());
+        assertEquals(2, scanned.getLayout().indexOf("age"));
+    }
+    
+    @Test
+    void testFilterAndSortOnDictionaryCodes() throws Exception {
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        String[] names = {"Carol", "Alice", "Bob"};
+        for (int i = 10; i < 40; i++) {
+            tableHeap.insertTuple(new Tuple(new Object[]{i, names[i % names.length], 20 + i}, columnMap));
+        }
+        
+        //filter: name = 'Bob'
+        BinaryExpr predicate = new BinaryExpr(
+            new IdentifierExpr("name"),
+            BinaryExpr.BinaryOp.EQ,
+            new LiteralExpr("Bob", LiteralExpr.LiteralType.STRING)
+        );
+        FilterOperator filter = new FilterOperator(new SeqScanOperator(tableHeap), predicate);
+        filter.open();
+        int matches = 0;
+        Tuple tuple;
+        while ((tuple = filter.next()) != null) {
+            assertEquals("Bob", tuple.getValue("name"));
+            matches++;
+        }
+        filter.close();
+        assertEquals(10, matches);
+        
+        SortOperator sort = new SortOperator(new SeqScanOperator(tableHeap), "name", SortNode.Order.ASC);
+        sort.open();
+        List<String> sorted = new ArrayList<>();
+        while ((tuple = sort.next()) != null) {
+            sorted.add((String) tuple.getValue("name"));
+        }
+        sort.close();
+        assertEquals(40, sorted.size());
+        List<String> expected = new ArrayList<>(sorted);
+        expected.sort(null);
+        assertEquals(expected, sorted);
+    }
+    
     @Test
     void testLimit() throws Exception {
         SeqScanOperator scan = new SeqScanOperator(tableHeap);
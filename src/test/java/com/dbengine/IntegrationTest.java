@@ -1,9 +1,13 @@
 package com.dbengine;
 
 import com.dbengine.Database.QueryResult;
+import com.dbengine.gui.SampleDataLoader;
 import com.dbengine.semantic.DataType;
 import com.dbengine.semantic.Schema;
+import com.dbengine.storage.Page;
+import com.dbengine.storage.PageType;
 import com.dbengine.storage.RecordId;
+import com.dbengine.storage.Tablespace;
 import com.dbengine.storage.TableHeap;
 import com.dbengine.storage.Tuple;
 import org.junit.jupiter.api.AfterEach;
@@ -11,10 +15,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -92,6 +100,147 @@ class IntegrationTest {
         assertEquals("Transaction committed", commit.message());
     }
     
+    @Test
+    void testTablesSurviveRestart() throws IOException {
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        columnMap.put("active", 3);
+        
+        TableHeap users = db.getTable("users").orElseThrow();
+        for (int i = 0; i < 500; i++) {
+            users.insertTuple(new Tuple(new Object[]{i, "user" + i, 20 + i % 50, i % 2 == 0}, columnMap));
+        }
+        db.getCatalog().addIndex("users", "id");
+        db.shutdown();
+        
+        db = new Database(dbDir.getFileName().toString());
+        assertTrue(db.getCatalog().tableExists("users"));
+        assertTrue(db.getCatalog().getTable("users").orElseThrow().hasIndex("id"));
+        assertEquals(4, db.getCatalog().getTable("users").orElseThrow().getSchema().getColumnCount());
+        
+        QueryResult result = db.execute("users |> filter(age >= 20) |> project(id, name)");
+        assertEquals("Success", result.message());
+        assertEquals(500, result.tuples().size());
+        
+        Schema schema = db.getCatalog().getTable("users").orElseThrow().getSchema();
+        assertThrows(IllegalArgumentException.class, () -> db.createTable("users", schema));
+    }
+    
+    @Test
+    void testHeapCreatedOnFirstUseGetsItsOwnFile() throws IOException {
+        Schema schema = new Schema();
+        schema.addColumn("id", DataType.INTEGER);
+        schema.addColumn("name", DataType.STRING);
+        db.getCatalog().registerTable("late", schema);
+        
+        //the planner creates the heap the first time the table is used
+        TableHeap late = db.getTable("late").orElseThrow();
+        assertNotEquals(Tablespace.MAIN_FILE, late.getFileId());
+        assertEquals(late.getFirstPageId(), db.getCatalog().getTable("late").orElseThrow().getHeapPageId());
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        late.insertTuple(new Tuple(new Object[]{1, "first"}, columnMap));
+        db.shutdown();
+        
+        db = new Database(dbDir.getFileName().toString());
+        assertEquals(1, db.getTable("late").orElseThrow().getAllTuples().size());
+    }
+    
+    @Test
+    void testPreCatalogDataFileIsSetAside() throws IOException {
+        db.shutdown();
+        Path dir = db.getDbDirectory();
+        try (DirectoryStream<Path> dataFiles = Files.newDirectoryStream(dir, "*.db")) {
+            for (Path dataFile : dataFiles) {
+                Files.delete(dataFile);
+            }
+        }
+        Files.deleteIfExists(dir.resolve("wal.log"));
+        
+        //a headerless file from before the catalog, with a heap page at page 0
+        ByteBuffer heapPage = ByteBuffer.allocate(Page.PAGE_SIZE);
+        heapPage.put(PageType.HEAP_PAGE.getId()).putInt(0).putInt(Page.PAGE_SIZE);
+        Files.write(dir.resolve("data.db"), heapPage.array());
+        
+        db = new Database(dbDir.getFileName().toString());
+        assertFalse(db.getCatalog().tableExists("users"));
+        assertArrayEquals(heapPage.array(), Files.readAllBytes(dir.resolve("data.db.pre-catalog")));
+        
+        Schema schema = new Schema();
+        schema.addColumn("id", DataType.INTEGER);
+        db.createTable("fresh", schema);
+        db.shutdown();
+        
+        db = new Database(dbDir.getFileName().toString());
+        assertTrue(db.getCatalog().tableExists("fresh"));
+    }
+    
+    @Test
+    void testSampleDataIsReproducible() throws Exception {
+        Schema productsSchema = new Schema();
+        productsSchema.addColumn("id", DataType.INTEGER);
+        productsSchema.addColumn("name", DataType.STRING);
+        productsSchema.addColumn("price", DataType.INTEGER);
+        productsSchema.addColumn("stock", DataType.INTEGER);
+        TableHeap users = db.getTable("users").orElseThrow();
+        TableHeap products = db.createTable("products", productsSchema);
+        TableHeap usersAgain = db.createTable("users_again", users.getSchema());
+        
+        //several partitions per table, loaded concurrently
+        SampleDataLoader.loadAllData(users, products, "350K", null);
+        SampleDataLoader.loadUsersData(usersAgain, usersAgain.getSchema(), "350K", null);
+        
+        Map<Object, List<Object>> first = rowsById(users);
+        assertEquals(SampleDataLoader.userCount("350K"), first.size());
+        assertEquals(first, rowsById(usersAgain));
+        assertEquals(SampleDataLoader.productCount("350K"), rowsById(products).size());
+    }
+    
+    @Test
+    void testSampleDataLoadStopsOnRequest() throws Exception {
+        Schema productsSchema = new Schema();
+        productsSchema.addColumn("id", DataType.INTEGER);
+        productsSchema.addColumn("name", DataType.STRING);
+        productsSchema.addColumn("price", DataType.INTEGER);
+        productsSchema.addColumn("stock", DataType.INTEGER);
+        TableHeap users = db.getTable("users").orElseThrow();
+        TableHeap products = db.createTable("products", productsSchema);
+        
+        //ask to stop as soon as the first partition is in
+        SampleDataLoader.ProgressCallback stopAfterFirst = new SampleDataLoader.ProgressCallback() {
+            private volatile boolean stop;
+            
+            @Override
+            public void onProgress(int current, int total, String message) {
+                stop = true;
+            }
+            
+            @Override
+            public boolean stopRequested() {
+                return stop;
+            }
+        };
+        assertThrows(InterruptedException.class,
+            () -> SampleDataLoader.loadAllData(users, products, "5M", stopAfterFirst));
+        
+        //nothing is still inserting once the call returns
+        int loaded = users.getAllTuples().size() + products.getAllTuples().size();
+        assertTrue(loaded < SampleDataLoader.userCount("5M"));
+        assertEquals(loaded, users.getAllTuples().size() + products.getAllTuples().size());
+    }
+    
+    private static Map<Object, List<Object>> rowsById(TableHeap tableHeap) {
+        Map<Object, List<Object>> rows = new HashMap<>();
+        for (Tuple tuple : tableHeap) {
+            rows.put(tuple.getValue("id"), Arrays.asList(tuple.getValues()));
+        }
+        return rows;
+    }
+    
     @Test
     void testInvalidQuery() {
         QueryResult result = db.execute("invalid query syntax");
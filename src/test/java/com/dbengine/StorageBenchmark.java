@@ -0,0 +1,152 @@
+package com.dbengine;
+
+import com.dbengine.semantic.DataType;
+import com.dbengine.semantic.Schema;
+import com.dbengine.storage.BufferAccessStrategy;
+import com.dbengine.storage.BufferPool;
+import com.dbengine.storage.DiskManager;
+import com.dbengine.storage.MappedDiskManager;
+import com.dbengine.storage.Page;
+import com.dbengine.storage.RecordId;
+import com.dbengine.storage.SyncPolicy;
+import com.dbengine.storage.TableHeap;
+import com.dbengine.storage.Tuple;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro-benchmarks for the storage layer. Run with: java com.dbengine.StorageBenchmark
+ */
+public class StorageBenchmark {
+    private static final int NUM_PAGES = 32768;  //128 MB of 4 KB pages
+    private static final int ROUNDS = 5;
+    
+    private static final int[] PAGE_SIZES = {4096, 8192, 16384, 32768};
+    private static final int NUM_ROWS = 500_000;
+    private static final int POOL_BYTES = 4 * 1024 * 1024;  //same memory budget for every page size, smaller than the table
+    private static final int LOOKUPS = 100_000;
+    
+    public static void main(String[] args) throws IOException {
+        System.out.println("=".repeat(60));
+        System.out.println("JavaDBEngine - Storage Benchmark");
+        System.out.println("=".repeat(60));
+        
+        Path dbFile = Files.createTempFile("bench_db", ".db");
+        try {
+            createDataFile(dbFile);
+            
+            System.out.println("\n--- Page read throughput (" + NUM_PAGES + " pages) ---\n");
+            benchmarkReads("FileChannel", new DiskManager(dbFile));
+            benchmarkReads("Memory-mapped", new MappedDiskManager(dbFile));
+        } finally {
+            Files.deleteIfExists(dbFile);
+        }
+        
+        System.out.println("\n--- Table scan and point lookups by page size ("
+                + NUM_ROWS + " rows, " + POOL_BYTES / (1024 * 1024) + " MB pool) ---\n");
+        for (int pageSize : PAGE_SIZES) {
+            benchmarkPageSize(pageSize);
+        }
+    }
+    
+    private static void createDataFile(Path dbFile) throws IOException {
+        DiskManager diskManager = new DiskManager(dbFile, Page.PAGE_SIZE, SyncPolicy.CHECKPOINT);
+        byte[] page = new byte[Page.PAGE_SIZE];
+        for (int pageId = 0; pageId < NUM_PAGES; pageId++) {
+            page[0] = (byte) pageId;
+            diskManager.writePage(new Page(pageId, page.clone()));
+        }
+        diskManager.sync();
+        diskManager.close();
+    }
+    
+    private static void benchmarkPageSize(int pageSize) throws IOException {
+        Path dbFile = Files.createTempFile("bench_page_size", ".db");
+        Files.delete(dbFile);  //let the disk manager create it with a header
+        try {
+            DiskManager diskManager = new DiskManager(dbFile, pageSize, SyncPolicy.CHECKPOINT);
+            BufferPool bufferPool = new BufferPool(diskManager, POOL_BYTES / pageSize);
+            
+            Schema schema = new Schema();
+            schema.addColumn("id", DataType.INTEGER);
+            schema.addColumn("name", DataType.STRING);
+            schema.addColumn("age", DataType.INTEGER);
+            Map<String, Integer> columnMap = new HashMap<>();
+            columnMap.put("id", 0);
+            columnMap.put("name", 1);
+            columnMap.put("age", 2);
+            
+            TableHeap tableHeap = new TableHeap(bufferPool, schema);
+            BufferAccessStrategy strategy = tableHeap.newAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE);
+            List<RecordId> rids = new ArrayList<>(NUM_ROWS);
+            for (int i = 0; i < NUM_ROWS; i++) {
+                rids.add(tableHeap.insertTuple(new Tuple(new Object[]{i, "User" + i, 20 + i % 50}, columnMap), strategy));
+            }
+            bufferPool.flushAllPages();
+            
+            double bestScan = Double.MAX_VALUE;
+            double bestLookup = Double.MAX_VALUE;
+            Random random = new Random(42);
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                int count = 0;
+                for (Tuple ignored : tableHeap) {
+                    count++;
+                }
+                bestScan = Math.min(bestScan, (System.nanoTime() - start) / 1e6);
+                if (count != NUM_ROWS) {
+                    throw new IllegalStateException("Scan returned " + count + " rows");
+                }
+                
+                start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    tableHeap.getTuple(rids.get(random.nextInt(NUM_ROWS)));
+                }
+                bestLookup = Math.min(bestLookup, (System.nanoTime() - start) / 1e3 / LOOKUPS);
+            }
+            
+            System.out.printf("%2d KB pages  %,7d pages   scan: %,8.1f ms   lookup: %,6.2f us%n",
+                    pageSize / 1024, diskManager.getNumPages(), bestScan, bestLookup);
+            bufferPool.close();
+            diskManager.close();
+        } finally {
+            Files.deleteIfExists(dbFile);
+        }
+    }
+    
+    private static void benchmarkReads(String label, DiskManager diskManager) throws IOException {
+        Page frame = new Page(0);
+        Random random = new Random(42);
+        double bestSequential = 0;
+        double bestRandom = 0;
+        
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int pageId = 0; pageId < NUM_PAGES; pageId++) {
+                diskManager.readPage(pageId, frame);
+            }
+            bestSequential = Math.max(bestSequential, throughput(start));
+            
+            start = System.nanoTime();
+            for (int i = 0; i < NUM_PAGES; i++) {
+                diskManager.readPage(random.nextInt(NUM_PAGES), frame);
+            }
+            bestRandom = Math.max(bestRandom, throughput(start));
+        }
+        diskManager.close();
+        
+        System.out.printf("%-14s sequential: %,8.0f MB/s   random: %,8.0f MB/s%n", label, bestSequential, bestRandom);
+    }
+    
+    private static double throughput(long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return (double) NUM_PAGES * Page.PAGE_SIZE / (1024 * 1024) / seconds;
+    }
+}
@@ -1,5 +1,7 @@
 package com.dbengine;
 
+import com.dbengine.exec.RemoveOperator;
+import com.dbengine.exec.SeqScanOperator;
 import com.dbengine.semantic.DataType;
 import com.dbengine.semantic.Schema;
 import com.dbengine.storage.*;
@@ -8,11 +10,19 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -90,4 +100,1008 @@ class StorageTest {
         List<Tuple> allTuples = tableHeap.getAllTuples();
         assertEquals(10, allTuples.size());
     }
+    
+    @Test
+    void testUpdateAndDeleteInPlace() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        RecordId first = tableHeap.insertTuple(new Tuple(new Object[]{1, "Alice", 25}, columnMap));
+        RecordId second = tableHeap.insertTuple(new Tuple(new Object[]{2, "Bob", 30}, columnMap));
+        
+        //same-size and grown updates are both visible through the page frame
+        assertTrue(tableHeap.updateTuple(first, new Tuple(new Object[]{1, "Alice", 26}, columnMap)));
+        assertTrue(tableHeap.updateTuple(second, new Tuple(new Object[]{2, "Bobby", 30}, columnMap)));
+        assertEquals(26, tableHeap.getTuple(first).getValue("age"));
+        assertEquals("Bobby", tableHeap.getTuple(second).getValue("name"));
+        
+        tableHeap.deleteTuple(first);
+        assertNull(tableHeap.getTuple(first));
+        assertEquals(1, tableHeap.getAllTuples().size());
+    }
+    
+    @Test
+    void testConcurrentFetchWithEviction() throws Exception {
+        //more pages than frames so concurrent readers force CLOCK eviction
+        int numPages = 50;
+        int[] pageIds = new int[numPages];
+        for (int i = 0; i < numPages; i++) {
+            Page page = bufferPool.newPage();
+            pageIds[i] = page.getPageId();
+            byte[] data = new byte[Page.PAGE_SIZE];
+            data[0] = (byte) i;
+            page.setData(data);
+            bufferPool.unpinPage(pageIds[i], true);
+        }
+        
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for (int n = 0; n < 2000; n++) {
+                        int i = random.nextInt(numPages);
+                        Page page = bufferPool.fetchPage(pageIds[i]);
+                        if (page.getPageId() != pageIds[i] || page.getData().get(0) != (byte) i) {
+                            failures.add(new AssertionError("Wrong contents for page " + pageIds[i]));
+                        }
+                        bufferPool.unpinPage(pageIds[i], false);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        assertTrue(failures.isEmpty(), failures.toString());
+        assertTrue(bufferPool.getNumPages() <= bufferPool.getPoolSize());
+    }
+    
+    @Test
+    void testConcurrentPositionalIo() throws Exception {
+        int perThread = 32;
+        Thread[] threads = new Thread[8];
+        int firstPageId = diskManager.allocatePages(perThread * threads.length);
+        
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads.length; t++) {
+            int base = firstPageId + t * perThread;
+            threads[t] = Thread.ofVirtual().start(() -> {
+                try {
+                    //half the pages one at a time, the rest as one gathered run
+                    List<Page> run = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        byte[] data = new byte[Page.PAGE_SIZE];
+                        Arrays.fill(data, (byte) (base + i));
+                        Page page = new Page(base + i, data);
+                        if (i < perThread / 2) {
+                            diskManager.writePage(page);
+                        } else {
+                            run.add(page);
+                        }
+                    }
+                    diskManager.writePages(run);
+                    for (int n = 0; n < 10; n++) {
+                        for (int i = 0; i < perThread; i++) {
+                            ByteBuffer read = diskManager.readPage(base + i).getData();
+                            if (read.get(0) != (byte) (base + i) || read.get(Page.PAGE_SIZE - 1) != (byte) (base + i)) {
+                                failures.add(new AssertionError("Wrong contents for page " + (base + i)));
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        assertTrue(failures.isEmpty(), failures.toString());
+    }
+    
+    @Test
+    void testReplacementPolicies() throws IOException {
+        for (ReplacementPolicyType type : ReplacementPolicyType.values()) {
+            BufferPool pool = new BufferPool(diskManager, 10, type);
+            
+            int[] pageIds = new int[40];
+            for (int i = 0; i < pageIds.length; i++) {
+                Page page = pool.newPage();
+                pageIds[i] = page.getPageId();
+                byte[] data = new byte[Page.PAGE_SIZE];
+                data[0] = (byte) i;
+                page.setData(data);
+                pool.unpinPage(pageIds[i], true);
+            }
+            pool.flushAllPages();
+            pool.resetStats();
+            
+            //hot set of 3 pages interleaved with a one-pass scan over the rest
+            for (int i = 3; i < pageIds.length; i++) {
+                for (int hot = 0; hot < 3; hot++) {
+                    Page page = pool.fetchPage(pageIds[hot]);
+                    assertEquals((byte) hot, page.getData().get(0), type + " returned wrong page");
+                    pool.unpinPage(pageIds[hot], false);
+                }
+                Page page = pool.fetchPage(pageIds[i]);
+                assertEquals((byte) i, page.getData().get(0), type + " returned wrong page");
+                pool.unpinPage(pageIds[i], false);
+            }
+            
+            BufferPoolStats stats = pool.getStats();
+            assertEquals(4L * (pageIds.length - 3), stats.hits() + stats.misses());
+            assertTrue(stats.hitRatio() > 0.5, type + " lost the hot set: " + stats);
+        }
+    }
+    
+    @Test
+    void testLruKVictimOrder() {
+        LruKPolicy policy = new LruKPolicy(4, 2);
+        for (int frameId = 0; frameId < 4; frameId++) {
+            policy.recordLoad(frameId, 100 + frameId);
+        }
+        //frame 0 gets a second, uncorrelated reference and becomes the last candidate
+        for (int i = 0; i < 20; i++) {
+            policy.recordAccess(3);
+        }
+        policy.recordAccess(0);
+        
+        assertEquals(1, policy.selectVictim(200, frameId -> true));
+        assertEquals(2, policy.selectVictim(200, frameId -> frameId != 1));  //pinned candidates are skipped
+        assertEquals(0, policy.selectVictim(200, frameId -> frameId == 0));
+        assertEquals(-1, policy.selectVictim(200, frameId -> false));
+        
+        policy.recordRemove(1, 101);
+        assertEquals(2, policy.selectVictim(200, frameId -> true));
+    }
+    
+    @Test
+    void testLargeScanRecyclesRing() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        BufferAccessStrategy loadStrategy = tableHeap.newAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE);
+        for (int i = 0; i < 3000; i++) {
+            tableHeap.insertTuple(new Tuple(new Object[]{i, "User" + i, 20 + i % 50}, columnMap), loadStrategy);
+        }
+        
+        //a hot page that a ring-based scan must not push out of the pool
+        Page hot = bufferPool.newPage();
+        int hotPageId = hot.getPageId();
+        bufferPool.unpinPage(hotPageId, true);
+        
+        int count = 0;
+        for (Tuple ignored : tableHeap) {
+            count++;
+        }
+        assertEquals(3000, count);
+        
+        bufferPool.resetStats();
+        bufferPool.fetchPage(hotPageId);
+        bufferPool.unpinPage(hotPageId, false);
+        assertEquals(1L, bufferPool.getStats().hits());
+    }
+    
+    @Test
+    void testReadAheadOnColdScan() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        String padding = "x".repeat(100);  //too long for the dictionary, so rows stay wide
+        for (int i = 0; i < 4000; i++) {
+            tableHeap.insertTuple(new Tuple(new Object[]{i, padding + i, 20 + i % 50}, columnMap));
+        }
+        bufferPool.flushAllPages();
+        
+        //a disk slower than the scan, so the scan keeps catching up with its prefetches
+        DiskManager slowDisk = new DiskManager(tempDbFile) {
+            @Override
+            public void readPage(int pageId, Page page) throws IOException {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.readPage(pageId, page);
+            }
+        };
+        BufferPool cold = new BufferPool(slowDisk, 1024, ReplacementPolicyType.ARC);
+        try {
+            TableHeap reopened = new TableHeap(cold, schema, tableHeap.getFirstPageId());
+            int numPages = reopened.getNumPages();
+            assertTrue(numPages > 64, "table should span many pages: " + numPages);
+            cold.resetStats();
+            
+            TableHeap.HeapIterator scan = reopened.iterator(BufferAccessStrategy.Type.BULK_READ, null);
+            boolean[] seen = new boolean[4000];
+            int count = 0;
+            while (scan.hasNext()) {
+                Tuple tuple = scan.next();
+                int id = (Integer) tuple.getValue("id");
+                assertEquals(padding + id, tuple.getValue("name"));
+                assertFalse(seen[id], "row " + id + " returned twice");
+                seen[id] = true;
+                count++;
+            }
+            assertEquals(4000, count);
+            assertTrue(scan.getReadAheadDepth() > 4, "window should widen on a slow disk: " + scan.getReadAheadDepth());
+            
+            //every page was referenced once: prefetched or not, each is a miss and none a hit
+            BufferPoolStats stats = cold.getStats();
+            assertEquals(0L, stats.hits(), stats.toString());
+            assertEquals(numPages, stats.misses(), stats.toString());
+            
+            //a second pass finds every page resident
+            cold.resetStats();
+            assertEquals(4000, reopened.getAllTuples().size());
+            stats = cold.getStats();
+            assertEquals(numPages, stats.hits(), stats.toString());
+            assertEquals(0L, stats.misses(), stats.toString());
+        } finally {
+            cold.close();
+            slowDisk.close();
+        }
+    }
+    
+    @Test
+    void testDirectFramesAtLargePageSize() throws IOException {
+        Path largePageFile = Files.createTempFile("test_direct_frames", ".db");
+        Files.delete(largePageFile);
+        int pageSize = 8192;
+        DiskManager disk = new DiskManager(largePageFile, pageSize, SyncPolicy.BATCH);
+        BufferPool pool = new BufferPool(disk, 2);
+        try {
+            int[] pageIds = new int[2];
+            for (int i = 0; i < pageIds.length; i++) {
+                Page page = pool.newPage();
+                assertTrue(page.getData().isDirect(), "frames should be off-heap");
+                assertEquals(pageSize, page.getSize());
+                byte[] data = new byte[pageSize];
+                Arrays.fill(data, (byte) (0xA0 + i));
+                page.setData(data);
+                pageIds[i] = page.getPageId();
+                pool.unpinPage(pageIds[i], true);
+            }
+            
+            //a new page reuses a frame full of the old bytes and must come back zeroed
+            Page fresh = pool.newPage();
+            assertArrayEquals(new byte[pageSize], fresh.getBytes());
+            pool.unpinPage(fresh.getPageId(), false);
+            
+            //written pages round-trip through the file into a recycled frame
+            for (int i = 0; i < pageIds.length; i++) {
+                Page page = pool.fetchPage(pageIds[i]);
+                assertTrue(page.getData().isDirect());
+                byte[] expected = new byte[pageSize];
+                Arrays.fill(expected, (byte) (0xA0 + i));
+                assertArrayEquals(expected, page.getBytes());
+                pool.unpinPage(pageIds[i], false);
+            }
+            
+            //reading past the end of the file zero-fills the frame
+            Page missing = pool.fetchPage(pageIds[1] + 10_000);
+            assertArrayEquals(new byte[pageSize], missing.getBytes());
+            pool.unpinPage(missing.getPageId(), false);
+        } finally {
+            pool.close();
+            disk.close();
+            Files.deleteIfExists(largePageFile);
+        }
+    }
+    
+    @Test
+    void testMemoryMappedDiskManager() throws IOException {
+        Path mappedFile = Files.createTempFile("test_mapped", ".db");
+        DiskManager mapped = new MappedDiskManager(mappedFile);
+        try {
+            //cross a segment boundary so pages are served from both the mapping and the channel tail
+            int numPages = 1100;
+            for (int i = 0; i < numPages; i++) {
+                mapped.allocatePage();
+            }
+            for (int pageId : new int[]{0, 1023, 1024, numPages - 1}) {
+                byte[] data = new byte[Page.PAGE_SIZE];
+                data[0] = 7;
+                data[Page.PAGE_SIZE - 1] = (byte) pageId;
+                mapped.writePage(new Page(pageId, data));
+            }
+            
+            for (int pageId : new int[]{0, 1023, 1024, numPages - 1}) {
+                Page frame = new Page(pageId);
+                mapped.readPage(pageId, frame);
+                assertEquals(7, frame.getData().get(0));
+                assertEquals((byte) pageId, frame.getData().get(Page.PAGE_SIZE - 1));
+                assertEquals(7, mapped.readPage(pageId).getData().get(0));
+            }
+        } finally {
+            mapped.close();
+            Files.deleteIfExists(mappedFile);
+        }
+    }
+    
+    @Test
+    void testBackgroundWriterCleansUnpinnedPages() throws IOException {
+        List<Integer> pageIds = new ArrayList<>();
+        Page last = null;
+        for (int i = 0; i < 5; i++) {
+            last = bufferPool.newPage();
+            byte[] data = last.getBytes();
+            data[0] = (byte) (i + 1);
+            last.setData(data);
+            pageIds.add(last.getPageId());
+        }
+        for (int i = 0; i < 4; i++) {
+            bufferPool.unpinPage(pageIds.get(i), true);
+        }
+        
+        //the still-pinned page is skipped
+        assertEquals(4, bufferPool.writeDirtyPages(100));
+        assertEquals(0, bufferPool.writeDirtyPages(100));
+        for (int i = 0; i < 4; i++) {
+            assertEquals((byte) (i + 1), diskManager.readPage(pageIds.get(i)).getData().get(0));
+        }
+        
+        bufferPool.unpinPage(pageIds.get(4), true);
+        BackgroundWriter writer = new BackgroundWriter(bufferPool, 10);
+        writer.start();
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (last.isDirty() && System.currentTimeMillis() < deadline) {
+                Thread.onSpinWait();
+            }
+        } finally {
+            writer.stop();
+        }
+        assertEquals(5, diskManager.readPage(pageIds.get(4)).getData().get(0));
+    }
+    
+    @Test
+    void testFlushAllPagesCoalescesRuns() throws IOException {
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Page page = bufferPool.newPage();
+            pageIds.add(page.getPageId());
+            bufferPool.unpinPage(page.getPageId(), false);
+        }
+        bufferPool.flushAllPages();
+        
+        //dirty two runs with a gap between them, in reverse order
+        for (int i : new int[]{7, 6, 5, 2, 1, 0}) {
+            Page page = bufferPool.fetchPage(pageIds.get(i));
+            byte[] data = page.getBytes();
+            data[0] = (byte) (i + 1);
+            data[Page.PAGE_SIZE - 1] = (byte) (i + 1);
+            page.setData(data);
+            bufferPool.unpinPage(pageIds.get(i), true);
+        }
+        bufferPool.flushAllPages();
+        
+        for (int i = 0; i < 8; i++) {
+            Page onDisk = diskManager.readPage(pageIds.get(i));
+            byte expected = (i == 3 || i == 4) ? 0 : (byte) (i + 1);
+            assertEquals(expected, onDisk.getData().get(0));
+            assertEquals(expected, onDisk.getData().get(Page.PAGE_SIZE - 1));
+            
+            Page cached = bufferPool.fetchPage(pageIds.get(i));
+            assertFalse(cached.isDirty());
+            bufferPool.unpinPage(pageIds.get(i), false);
+        }
+    }
+    
+    @Test
+    void testPageSizeStoredInHeader() throws IOException {
+        Path largePageFile = Files.createTempFile("test_page_size", ".db");
+        Files.delete(largePageFile);
+        try {
+            DiskManager created = new DiskManager(largePageFile, 16384, SyncPolicy.BATCH);
+            BufferPool pool = new BufferPool(created, 4);
+            TableHeap tableHeap = new TableHeap(pool, schema);
+            
+            Map<String, Integer> columnMap = new HashMap<>();
+            columnMap.put("id", 0);
+            columnMap.put("name", 1);
+            columnMap.put("age", 2);
+            RecordId last = null;
+            for (int i = 0; i < 1000; i++) {
+                last = tableHeap.insertTuple(new Tuple(new Object[]{i, "User" + i, 20 + i % 50}, columnMap));
+            }
+            pool.flushAllPages();
+            int numPages = created.getNumPages();
+            pool.close();
+            created.close();
+            
+            //reopening with a different requested size keeps the stored one
+            DiskManager reopened = new DiskManager(largePageFile, Page.PAGE_SIZE, SyncPolicy.BATCH);
+            try {
+                assertEquals(16384, reopened.getPageSize());
+                assertEquals(numPages, reopened.getNumPages());
+                assertTrue(Files.size(largePageFile) >= (numPages + 1) * 16384L);
+                
+                TableHeap reread = new TableHeap(new BufferPool(reopened, 4), schema, tableHeap.getFirstPageId());
+                assertEquals("User999", reread.getTuple(last).getValue(1));
+                assertEquals(1000, reread.getAllTuples().size());
+            } finally {
+                reopened.close();
+            }
+        } finally {
+            Files.deleteIfExists(largePageFile);
+        }
+    }
+    
+    @Test
+    void testPagesAllocatedFromPreallocatedExtents() throws IOException {
+        Path extentFile = Files.createTempFile("test_extents", ".db");
+        Path crashCopy = Files.createTempFile("test_extents_crash", ".db");
+        Files.delete(extentFile);
+        try {
+            DiskManager disk = new DiskManager(extentFile);
+            assertEquals(0, disk.allocatePage());
+            long preallocated = Files.size(extentFile);
+            assertTrue(preallocated > 2L * Page.PAGE_SIZE, "file should grow ahead of demand");
+            
+            //later pages come from the preallocated space without growing the file
+            assertEquals(1, disk.allocatePages(10));
+            assertEquals(preallocated, Files.size(extentFile));
+            assertEquals(11, disk.getNumPages());
+            
+            //after a crash the whole reserved extent stays allocated
+            Files.copy(extentFile, crashCopy, StandardCopyOption.REPLACE_EXISTING);
+            DiskManager recovered = new DiskManager(crashCopy);
+            assertTrue(recovered.getNumPages() >= 11);
+            assertTrue(recovered.allocatePage() >= 11);
+            recovered.close();
+            
+            //a clean close records the exact count
+            disk.close();
+            DiskManager reopened = new DiskManager(extentFile);
+            assertEquals(11, reopened.getNumPages());
+            assertEquals(11, reopened.allocatePage());
+            reopened.close();
+        } finally {
+            Files.deleteIfExists(extentFile);
+            Files.deleteIfExists(crashCopy);
+        }
+    }
+    
+    @Test
+    void testFreeSpaceMapReusesPartialPages() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        //two large tuples per page leave about 1KB unused in each page
+        String large = "x".repeat(1500);
+        for (int i = 0; i < 200; i++) {
+            tableHeap.insertTuple(new Tuple(new Object[]{i, large, 30}, columnMap));
+        }
+        int pagesAfterLargeRows = tableHeap.getNumPages();
+        assertEquals(100, pagesAfterLargeRows);
+        
+        //small tuples go into the leftover space instead of new pages
+        for (int i = 200; i < 1000; i++) {
+            tableHeap.insertTuple(new Tuple(new Object[]{i, "User" + i, 30}, columnMap));
+        }
+        assertEquals(pagesAfterLargeRows, tableHeap.getNumPages());
+        
+        bufferPool.flushAllPages();
+        TableHeap reopened = new TableHeap(bufferPool, schema, tableHeap.getFirstPageId());
+        assertEquals(pagesAfterLargeRows, reopened.getNumPages());
+        int count = 0;
+        for (Tuple ignored : reopened) {
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+    
+    @Test
+    void testHeapPageCompactionAndSlotReuse() throws IOException {
+        Page page = bufferPool.newPage();
+        HeapPage heapPage = new HeapPage(page, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        int count = 0;
+        while (heapPage.insertTuple(new Tuple(new Object[]{count, "a".repeat(20), 30}, columnMap)) != -1) {
+            count++;
+        }
+        
+        //shrinking and regrowing every row leaves garbage that only compaction can reclaim
+        for (int round = 0; round < 20; round++) {
+            String name = (round % 2 == 0 ? "b" : "c").repeat(round % 2 == 0 ? 10 : 20);
+            for (int slot = 0; slot < count; slot++) {
+                assertTrue(heapPage.updateTuple(slot, new Tuple(new Object[]{slot, name, 30}, columnMap)),
+                        "update of slot " + slot + " in round " + round);
+            }
+        }
+        assertEquals("c".repeat(20), heapPage.getTuple(count - 1).getValue(1));
+        
+        heapPage.deleteTuple(3);
+        heapPage.deleteTuple(7);
+        assertNull(heapPage.getTuple(3));
+        assertEquals(3, heapPage.insertTuple(new Tuple(new Object[]{100, "d".repeat(20), 30}, columnMap)));
+        assertEquals(7, heapPage.insertTuple(new Tuple(new Object[]{101, "e".repeat(20), 30}, columnMap)));
+        assertEquals(count, heapPage.getTupleCount());
+        assertEquals(-1, heapPage.insertTuple(new Tuple(new Object[]{102, "f".repeat(20), 30}, columnMap)));
+        
+        assertEquals(100, heapPage.getTuple(3).getValue(0));
+        assertEquals(count, heapPage.getAllTuples().size());
+        bufferPool.unpinPage(page.getPageId(), true);
+    }
+    
+    @Test
+    void testCompactRowFormat() throws IOException {
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        Page compactPage = bufferPool.newPage();
+        HeapPage compact = new HeapPage(compactPage, schema);
+        int compactRows = 0;
+        while (compact.insertTuple(new Tuple(new Object[]{compactRows, "a".repeat(20), 30}, columnMap)) != -1) {
+            compactRows++;
+        }
+        
+        //a value that does not match its column type falls back to the tagged format
+        Page taggedPage = bufferPool.newPage();
+        HeapPage tagged = new HeapPage(taggedPage, schema);
+        int taggedRows = 0;
+        while (tagged.insertTuple(new Tuple(new Object[]{taggedRows, "a".repeat(20), "30"}, columnMap)) != -1) {
+            taggedRows++;
+        }
+        assertTrue(compactRows > taggedRows, compactRows + " compact rows vs " + taggedRows + " tagged rows");
+        
+        assertEquals(30, compact.getValue(5, 2));
+        assertEquals("a".repeat(20), compact.getValue(5, 1));
+        assertEquals("30", tagged.getValue(5, 2));
+        
+        //both formats and nulls on one page
+        compact.deleteTuple(0);
+        compact.deleteTuple(1);
+        assertEquals(0, compact.insertTuple(new Tuple(new Object[]{-1, null, null}, columnMap)));
+        assertEquals(1, compact.insertTuple(new Tuple(new Object[]{-2, "x", "old"}, columnMap)));
+        assertNull(compact.getValue(0, 1));
+        assertNull(compact.getTuple(0).getValue("age"));
+        assertEquals(-1, compact.getTuple(0).getValue("id"));
+        assertEquals("old", compact.getTuple(1).getValue("age"));
+        assertEquals(compactRows, compact.getAllTuples().size());
+        
+        bufferPool.unpinPage(compactPage.getPageId(), true);
+        bufferPool.unpinPage(taggedPage.getPageId(), true);
+    }
+    
+    @Test
+    void testDictionaryEncodedStrings() throws IOException {
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        String[] departments = {"Engineering", "Marketing", "Sales", "Human Resources", "Finance"};
+        
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        for (int i = 0; i < 2000; i++) {
+            tableHeap.insertTuple(new Tuple(new Object[]{i, departments[i % departments.length], 30}, columnMap));
+        }
+        
+        //the same rows with the strings stored inline
+        Page page = bufferPool.newPage();
+        HeapPage inline = new HeapPage(page, schema);
+        int inlineRows = 0;
+        while (inline.insertTuple(new Tuple(new Object[]{inlineRows, departments[inlineRows % departments.length], 30}, columnMap)) != -1) {
+            inlineRows++;
+        }
+        bufferPool.unpinPage(page.getPageId(), false);
+        int inlinePages = (2000 + inlineRows - 1) / inlineRows;
+        assertTrue(tableHeap.getNumPages() < inlinePages, tableHeap.getNumPages() + " pages vs " + inlinePages + " inline");
+        
+        bufferPool.flushAllPages();
+        TableHeap reopened = new TableHeap(bufferPool, schema, tableHeap.getFirstPageId());
+        int count = 0;
+        for (Tuple tuple : reopened) {
+            int id = (Integer) tuple.getValue("id");
+            assertEquals(departments[id % departments.length], tuple.getValue("name"));
+            assertEquals(departments[id % departments.length], tuple.getValues()[1]);
+            count++;
+        }
+        assertEquals(2000, count);
+        
+        //new strings keep getting codes after the table is reopened
+        RecordId rid = reopened.insertTuple(new Tuple(new Object[]{2000, "Legal", 41}, columnMap));
+        assertEquals("Legal", reopened.getTuple(rid).getValue("name"));
+        
+        //strings too long for the dictionary are stored inline
+        String longName = "x".repeat(100);
+        rid = reopened.insertTuple(new Tuple(new Object[]{2001, longName, 41}, columnMap));
+        assertEquals(longName, reopened.getTuple(rid).getValue("name"));
+    }
+    
+    @Test
+    void testDictionaryCodesReachDiskBeforeHeapPages() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        //every name is a new code, enough to spread the dictionary over several pages
+        for (int i = 0; i < 1000; i++) {
+            tableHeap.insertTuple(new Tuple(new Object[]{i, "User" + i, 30}, columnMap));
+        }
+        
+        //write every page but the dictionary's, as an evicting writer might, and read the file back
+        for (int pageId = 0; pageId < diskManager.getNumPages(); pageId++) {
+            if (bufferPool.isResident(pageId)) {
+                Page page = bufferPool.fetchPage(pageId);
+                byte type = page.getData().get(0);
+                bufferPool.unpinPage(pageId, false);
+                if (type != PageType.DICTIONARY.getId()) {
+                    bufferPool.flushPage(pageId);
+                }
+            }
+        }
+        DiskManager reopened = new DiskManager(tempDbFile);
+        try {
+            TableHeap reread = new TableHeap(new BufferPool(reopened, 16), schema, tableHeap.getFirstPageId());
+            int count = 0;
+            for (Tuple tuple : reread) {
+                assertEquals("User" + tuple.getValue("id"), tuple.getValue("name"));
+                count++;
+            }
+            assertEquals(1000, count);
+        } finally {
+            reopened.close();
+        }
+    }
+    
+    @Test
+    void testBulkInsertWritesOverflowChainsFirst() throws IOException {
+        BufferPool pool = new BufferPool(diskManager, 256);  //large enough to keep every chain resident
+        TableHeap tableHeap = new TableHeap(pool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        List<Tuple> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new Tuple(new Object[]{i, String.valueOf((char) ('a' + i)).repeat(6000), 30}, columnMap));
+        }
+        tableHeap.bulkInsert(rows.iterator());
+        
+        //write every page but the overflow pages, as an evicting writer might, and read the file back
+        for (int pageId = 0; pageId < diskManager.getNumPages(); pageId++) {
+            if (pool.isResident(pageId)) {
+                Page page = pool.fetchPage(pageId);
+                byte type = page.getData().get(0);
+                pool.unpinPage(pageId, false);
+                if (type != PageType.OVERFLOW.getId()) {
+                    pool.flushPage(pageId);
+                }
+            }
+        }
+        DiskManager reopened = new DiskManager(tempDbFile);
+        try {
+            TableHeap reread = new TableHeap(new BufferPool(reopened, 16), schema, tableHeap.getFirstPageId());
+            int count = 0;
+            for (Tuple tuple : reread) {
+                int id = (Integer) tuple.getValue("id");
+                assertEquals(String.valueOf((char) ('a' + id)).repeat(6000), tuple.getValue("name"));
+                count++;
+            }
+            assertEquals(20, count);
+        } finally {
+            reopened.close();
+        }
+    }
+    
+    @Test
+    void testColumnSelectiveScan() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        for (int i = 0; i < 500; i++) {
+            tableHeap.insertTuple(new Tuple(new Object[]{i, i % 7 == 0 ? null : "User" + i, 20 + i % 40}, columnMap));
+        }
+        
+        int count = 0;
+        Iterator<Tuple> scan = tableHeap.iterator(BufferAccessStrategy.Type.BULK_READ, Set.of("age"));
+        while (scan.hasNext()) {
+            Tuple tuple = scan.next();
+            int id = (Integer) tuple.getValue("id");
+            assertEquals(20 + id % 40, tuple.getValue("age"));
+            //columns outside the set are decoded on demand
+            assertEquals(id % 7 == 0 ? null : "User" + id, tuple.getValue("name"));
+            
+            //a partially decoded tuple can be written back as is
+            if (id == 10) {
+                Tuple updated = tuple.copy();
+                updated.setValue(2, 99);
+                assertTrue(tableHeap.updateTuple(tuple.getRecordId(), updated));
+            }
+            count++;
+        }
+        assertEquals(500, count);
+        
+        Tuple updated = null;
+        for (Tuple tuple : tableHeap) {
+            if (tuple.getValue("id").equals(10)) {
+                updated = tuple;
+            }
+        }
+        assertEquals("User10", updated.getValue("name"));
+        assertEquals(99, updated.getValue("age"));
+    }
+    
+    @Test
+    void testBulkInsertAppendsPackedPages() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        tableHeap.insertTuple(new Tuple(new Object[]{-1, "Before", 40}, columnMap));
+        List<Tuple> rows = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            rows.add(new Tuple(new Object[]{i, i % 100 == 0 ? "x".repeat(5000) : "User" + i, 20 + i % 40}, columnMap));
+        }
+        int pagesBefore = diskManager.getNumPages();
+        assertEquals(5000, tableHeap.bulkInsert(rows.iterator()));
+        assertTrue(diskManager.getNumPages() > pagesBefore + 64, "bulk load should span several runs");
+        
+        //regular inserts continue after the bulk-loaded pages
+        RecordId rid = tableHeap.insertTuple(new Tuple(new Object[]{5000, "After", 41}, columnMap));
+        assertEquals("After", tableHeap.getTuple(rid).getValue("name"));
+        
+        bufferPool.flushAllPages();
+        TableHeap reopened = new TableHeap(bufferPool, schema, tableHeap.getFirstPageId());
+        int count = 0;
+        for (Tuple tuple : reopened) {
+            int id = (Integer) tuple.getValue("id");
+            if (id >= 0 && id < 5000) {
+                assertEquals(id % 100 == 0 ? "x".repeat(5000) : "User" + id, tuple.getValue("name"));
+                assertEquals(20 + id % 40, tuple.getValue("age"));
+            }
+            count++;
+        }
+        assertEquals(5002, count);
+    }
+    
+    @Test
+    void testTablesInSeparateDataFiles() throws IOException {
+        Path dir = Files.createTempDirectory("test_tablespace");
+        Path mainPath = dir.resolve("data.db");
+        Tablespace.FileOpener opener = (path, fileId) -> new DiskManager(path, Page.PAGE_SIZE, SyncPolicy.BATCH, fileId);
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        try {
+            DiskManager main = new DiskManager(mainPath);
+            Tablespace tablespace = new Tablespace(dir, main, opener);
+            BufferPool pool = new BufferPool(tablespace, 16, ReplacementPolicyType.CLOCK);
+            
+            int firstFile = tablespace.createFile();
+            int secondFile = tablespace.createFile();
+            TableHeap first = TableHeap.createInFile(pool, schema, firstFile);
+            TableHeap second = TableHeap.createInFile(pool, schema, secondFile);
+            for (int i = 0; i < 1000; i++) {
+                first.insertTuple(new Tuple(new Object[]{i, "First" + i, 20}, columnMap));
+                second.insertTuple(new Tuple(new Object[]{i, "Second" + i, 30}, columnMap));
+            }
+            pool.flushAllPages();
+            
+            //each table's pages are in its own file, numbered from 0
+            assertEquals(0, main.getNumPages());
+            assertEquals(firstFile, Tablespace.fileId(first.getFirstPageId()));
+            assertEquals(0, Tablespace.pageNo(first.getFirstPageId()));
+            assertTrue(tablespace.getFile(firstFile).getNumPages() > first.getNumPages());  //plus header, FSM and dictionary
+            int firstHeader = first.getFirstPageId();
+            int secondHeader = second.getFirstPageId();
+            pool.close();
+            tablespace.close();
+            
+            //reopening finds both files again
+            main = new DiskManager(mainPath);
+            tablespace = new Tablespace(dir, main, opener);
+            pool = new BufferPool(tablespace, 16, ReplacementPolicyType.CLOCK);
+            assertEquals(List.of(Tablespace.MAIN_FILE, firstFile, secondFile), tablespace.getFileIds());
+            assertEquals(1000, new TableHeap(pool, schema, firstHeader).getAllTuples().size());
+            TableHeap reopened = new TableHeap(pool, schema, secondHeader);
+            for (Tuple tuple : reopened) {
+                assertEquals("Second" + tuple.getValue("id"), tuple.getValue("name"));
+            }
+            
+            //dropping a table's file removes all of its pages
+            pool.dropFile(firstFile);
+            assertFalse(Files.exists(dir.resolve("file_" + firstFile + ".db")));
+            assertEquals(List.of(Tablespace.MAIN_FILE, secondFile), tablespace.getFileIds());
+            assertEquals(firstFile, tablespace.createFile());
+            assertEquals(0, tablespace.getFile(firstFile).getNumPages());
+            assertEquals(1000, reopened.getAllTuples().size());
+            pool.close();
+            tablespace.close();
+        } finally {
+            try (var paths = Files.list(dir)) {
+                for (Path path : paths.toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+    
+    @Test
+    void testGrowingUpdatesMoveTuplesBehindRedirects() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            rids.add(tableHeap.insertTuple(new Tuple(new Object[]{i, "User" + i, 30}, columnMap)));
+        }
+        
+        //grow every row while scanning, as a modify does; moved rows must not be seen twice
+        int scanned = 0;
+        for (Tuple tuple : tableHeap) {
+            int id = (Integer) tuple.getValue(0);
+            assertTrue(tableHeap.updateTuple(tuple.getRecordId(),
+                    new Tuple(new Object[]{id, "LongerName" + id + "x".repeat(40), 30}, columnMap)));
+            scanned++;
+        }
+        assertEquals(300, scanned);
+        
+        //move some rows a second time; their record IDs still lead to them
+        for (int i = 0; i < 300; i += 10) {
+            assertTrue(tableHeap.updateTuple(rids.get(i),
+                    new Tuple(new Object[]{i, "Longest" + "y".repeat(200), 30}, columnMap)));
+        }
+        for (int i = 0; i < 300; i++) {
+            Tuple tuple = tableHeap.getTuple(rids.get(i));
+            assertEquals(i, tuple.getValue(0));
+            assertEquals(rids.get(i), tuple.getRecordId());
+        }
+        
+        for (int i = 0; i < 300; i += 3) {
+            tableHeap.deleteTuple(rids.get(i));
+        }
+        int remaining = 0;
+        for (Tuple tuple : tableHeap) {
+            assertNotEquals(0, (Integer) tuple.getValue(0) % 3);
+            assertTrue(((String) tuple.getValue(1)).startsWith("Long"));
+            remaining++;
+        }
+        assertEquals(200, remaining);
+        assertEquals(200, tableHeap.getAllTuples().size());
+    }
+    
+    @Test
+    void testLargeStringsUseOverflowPages() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 20000; i++) {
+            builder.append("chunk").append(i).append('-');
+        }
+        String large = builder.toString();
+        RecordId rid = tableHeap.insertTuple(new Tuple(new Object[]{1, large, 30}, columnMap));
+        tableHeap.insertTuple(new Tuple(new Object[]{2, "small", 31}, columnMap));
+        assertEquals(1, tableHeap.getNumPages());
+        
+        //a scan that only reads the other columns never touches the overflow pages
+        bufferPool.resetStats();
+        int ageSum = 0;
+        for (Tuple tuple : tableHeap) {
+            ageSum += (Integer) tuple.getValue("age");
+        }
+        assertEquals(61, ageSum);
+        BufferPoolStats stats = bufferPool.getStats();
+        assertEquals(1L, stats.hits() + stats.misses());
+        
+        assertEquals(large, tableHeap.getTuple(rid).getValue("name"));
+        
+        //updating another column keeps the overflow value without rewriting it
+        Tuple updated = tableHeap.getTuple(rid).copy();
+        updated.setValue(2, 40);
+        assertTrue(tableHeap.updateTuple(rid, updated));
+        Tuple reread = tableHeap.getTuple(rid);
+        assertEquals(40, reread.getValue(2));
+        assertEquals(large, reread.getValue(1));
+    }
+    
+    @Test
+    void testFreedOverflowChainsAreReused() throws IOException {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        
+        RecordId rid = tableHeap.insertTuple(new Tuple(new Object[]{1, "a".repeat(20000), 30}, columnMap));
+        tableHeap.insertTuple(new Tuple(new Object[]{2, "small", 31}, columnMap));
+        
+        //the first replacement needs a second chain; later ones reuse the freed pages
+        assertTrue(tableHeap.updateTuple(rid, new Tuple(new Object[]{1, "b".repeat(20000), 30}, columnMap)));
+        int pages = diskManager.getNumPages();
+        for (int i = 0; i < 10; i++) {
+            String value = String.valueOf((char) ('c' + i)).repeat(20000);
+            assertTrue(tableHeap.updateTuple(rid, new Tuple(new Object[]{1, value, 30}, columnMap)));
+            assertEquals(value, tableHeap.getTuple(rid).getValue("name"));
+        }
+        assertEquals(pages, diskManager.getNumPages());
+        
+        //a deleted row's chain is reused by the next large row, also after reopening the table
+        tableHeap.deleteTuple(rid);
+        bufferPool.flushAllPages();
+        TableHeap reopened = new TableHeap(bufferPool, schema, tableHeap.getFirstPageId());
+        RecordId replacement = reopened.insertTuple(new Tuple(new Object[]{3, "z".repeat(20000), 32}, columnMap));
+        assertEquals(pages, diskManager.getNumPages());
+        assertEquals("z".repeat(20000), reopened.getTuple(replacement).getValue("name"));
+        assertEquals(2, reopened.getAllTuples().size());
+    }
+    
+    @Test
+    void testRemovedRowKeepsItsLargeValue() throws Exception {
+        TableHeap tableHeap = new TableHeap(bufferPool, schema);
+        
+        Map<String, Integer> columnMap = new HashMap<>();
+        columnMap.put("id", 0);
+        columnMap.put("name", 1);
+        columnMap.put("age", 2);
+        tableHeap.insertTuple(new Tuple(new Object[]{1, "a".repeat(20000), 30}, columnMap));
+        
+        RemoveOperator remove = new RemoveOperator(new SeqScanOperator(tableHeap), tableHeap);
+        remove.open();
+        Tuple removed = remove.next();
+        assertNull(remove.next());
+        remove.close();
+        
+        //the freed chain is reused before the removed row is read
+        RecordId rid = tableHeap.insertTuple(new Tuple(new Object[]{2, "b".repeat(20000), 31}, columnMap));
+        assertEquals("a".repeat(20000), removed.getValue("name"));
+        assertEquals("b".repeat(20000), tableHeap.getTuple(rid).getValue("name"));
+    }
 }
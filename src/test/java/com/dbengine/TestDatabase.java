@@ -21,8 +21,12 @@ public class TestDatabase {
             schema.addColumn("age", DataType.INTEGER);
             schema.addColumn("active", DataType.BOOLEAN);
             
-            db.createTable("users", schema);
-            System.out.println("✓ Created 'users' table");
+            if (db.getCatalog().tableExists("users")) {
+                System.out.println("✓ Opened existing 'users' table");
+            } else {
+                db.createTable("users", schema);
+                System.out.println("✓ Created 'users' table");
+            }
             
             //test queries
             System.out.println("\n--- Testing Queries ---\n");